@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Throughput of the binary commit encoding against Java serialization of
+ *  the same fields, which is how commits used to be stored.
+ *
+ *  @author
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CommitCodecBenchmark {
+
+    /** The fields of a commit, stored the old way. */
+    static class SerializedCommit implements Serializable {
+        String message, id, timeStamp, treeId;
+        List<String> parents;
+    }
+
+    /** Number of parents of the commit. */
+    @Param({"1", "2"})
+    public int parents;
+
+    /** Length of the commit message. */
+    @Param({"20", "2000"})
+    public int messageLength;
+
+    private Commit commit;
+    private SerializedCommit serializedCommit;
+    private byte[] encoded, serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> parentIds = new ArrayList<>();
+        for (int k = 0; k < parents; k += 1) {
+            parentIds.add(Utils.sha1("parent", Integer.toString(k)));
+        }
+        String message = "m".repeat(messageLength);
+        String timeStamp = "Thu Jan 1 00:00:00 1970 +0000";
+        String treeId = Utils.sha1("tree");
+        String id = Utils.sha1(message, timeStamp, treeId, parentIds.toString());
+        commit = new Commit(id, message, timeStamp, treeId, parentIds);
+        encoded = commit.encode();
+
+        serializedCommit = new SerializedCommit();
+        serializedCommit.message = message;
+        serializedCommit.id = id;
+        serializedCommit.timeStamp = timeStamp;
+        serializedCommit.treeId = treeId;
+        serializedCommit.parents = parentIds;
+        serialized = serialize(serializedCommit);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return commit.encode();
+    }
+
+    @Benchmark
+    public Commit decode() {
+        return Commit.decode(commit.getId(), encoded);
+    }
+
+    @Benchmark
+    public byte[] javaSerialize() throws IOException {
+        return serialize(serializedCommit);
+    }
+
+    @Benchmark
+    public SerializedCommit javaDeserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return (SerializedCommit) in.readObject();
+        }
+    }
+
+    /** Returns COMMIT serialized. */
+    private static byte[] serialize(SerializedCommit commit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(commit);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Throughput of the Repository commands on a synthetic repository of
+ *  FILES files and COMMITS commits, spread over BRANCHES branches that are
+ *  merged back into master after every round of commits.  Run it with
+ *  -prof gc to get the allocation rate of each command as well.
+ *
+ *  Repository fixes its directories when it is loaded, so the repository
+ *  is generated in a new temporary directory, which is made the working
+ *  directory, before anything touches Repository.  That works because JMH
+ *  runs each benchmark and set of parameters in a fresh JVM.  The generated
+ *  repositories set core.fsync to false, so that the numbers measure the
+ *  object I/O rather than the disk's flush latency.  Commands print to a
+ *  stream that discards its output.
+ *
+ *  @author
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RepositoryBenchmark {
+
+    /** Files changed by each generated commit. */
+    private static final int CHANGES_PER_COMMIT = 5;
+
+    /** The branch that checkoutBranch switches to and from. */
+    private static final String OTHER = "other";
+
+    /** Number of files in the working directory. */
+    @Param({"100", "1000"})
+    public int files;
+
+    /** Number of commits generated, not counting merges. */
+    @Param({"20", "200"})
+    public int commits;
+
+    /** Number of branches the commits are spread over. */
+    @Param({"1", "4"})
+    public int branches;
+
+    private File dir;
+    private int edits;
+
+    /** A change to one file, staged before each call of commit. */
+    @State(Scope.Thread)
+    public static class Staged {
+        @Setup(Level.Invocation)
+        public void stage(RepositoryBenchmark repo) {
+            repo.edit(0);
+        }
+    }
+
+    /** A branch that has diverged from master, made before each call of
+     *  merge.  Master and the branch change different files, so the merge
+     *  has no conflicts. */
+    @State(Scope.Thread)
+    public static class Diverged {
+        private int count;
+        private String branch;
+
+        @Setup(Level.Invocation)
+        public void diverge(RepositoryBenchmark repo) {
+            branch = "merge" + count;
+            count += 1;
+            Repository.branch(branch);
+            Repository.checkoutBranch(branch);
+            repo.edit(1);
+            Repository.commit("change on " + branch);
+            Repository.checkoutBranch("master");
+            repo.edit(0);
+            Repository.commit("change on master");
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("gitlet-benchmark").toFile();
+        System.setProperty("user.dir", dir.getAbsolutePath());
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        Repository.init();
+        Utils.writeContents(Config.CONFIG_FILE, "core.fsync = false\n");
+        for (int k = 0; k < files; k += 1) {
+            Utils.writeContents(file(k), "initial contents of file " + k + "\n");
+            Repository.add(file(k).getName());
+        }
+        Repository.commit("add " + files + " files");
+        for (int b = 1; b < branches; b += 1) {
+            Repository.branch("branch" + b);
+        }
+
+        String current = "master";
+        for (int c = 0; c < commits; c += 1) {
+            int b = c % branches;
+            current = switchTo(current, b == 0 ? "master" : "branch" + b);
+            for (int k = 0; k < CHANGES_PER_COMMIT; k += 1) {
+                edit((c / branches * CHANGES_PER_COMMIT + k) * branches + b);
+            }
+            Repository.commit("commit " + c);
+            if (b == branches - 1) {
+                current = switchTo(current, "master");
+                for (int m = 1; m < branches; m += 1) {
+                    Repository.merge("branch" + m);
+                }
+            }
+        }
+        switchTo(current, "master");
+
+        Repository.branch(OTHER);
+        Repository.checkoutBranch(OTHER);
+        for (int k = 0; k < files; k += 10) {
+            edit(k);
+        }
+        Repository.commit("change every tenth file");
+        Repository.checkoutBranch("master");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /** Returns working file K. */
+    private File file(int k) {
+        return Utils.join(Repository.CWD, "f" + k + ".txt");
+    }
+
+    /** Gives the Kth working file, modulo FILES, new contents and stages it. */
+    void edit(int k) {
+        File file = file(k % files);
+        Utils.writeContents(file, "edit " + edits + " of file " + k % files + "\n");
+        edits += 1;
+        Repository.add(file.getName());
+    }
+
+    /** Checks out BRANCH if it is not CURRENT, and returns it. */
+    private static String switchTo(String current, String branch) {
+        if (!branch.equals(current)) {
+            Repository.checkoutBranch(branch);
+        }
+        return branch;
+    }
+
+    @Benchmark
+    public void add() {
+        edit(0);
+    }
+
+    @Benchmark
+    public void commit(Staged staged) {
+        Repository.commit("benchmark commit");
+    }
+
+    @Benchmark
+    public void checkoutBranch() {
+        Repository.checkoutBranch(OTHER);
+        Repository.checkoutBranch("master");
+    }
+
+    @Benchmark
+    public void checkoutFile() {
+        Repository.checkout(file(0).getName());
+    }
+
+    @Benchmark
+    public void merge(Diverged diverged) {
+        Repository.merge(diverged.branch);
+    }
+
+    @Benchmark
+    public void log() {
+        Repository.log(-1, Long.MIN_VALUE);
+    }
+
+    @Benchmark
+    public void logPath() {
+        Repository.log(-1, Long.MIN_VALUE, file(0).getName());
+    }
+
+    @Benchmark
+    public void globalLog() {
+        Repository.globalLog(-1, Long.MIN_VALUE);
+    }
+
+    @Benchmark
+    public void find() {
+        Repository.find("commit 1");
+    }
+
+    @Benchmark
+    public void status() {
+        Repository.status();
+    }
+}
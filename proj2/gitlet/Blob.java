@@ -1,47 +1,43 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
 
-public class Blob implements Serializable {
+/** The contents of one version of a file.  A blob's id depends only on its
+ *  contents; the path a blob is stored under lives in the tree map of the
+ *  commit (or stage) that refers to it, so identical files share one blob.
+ *  A Blob is only a handle: its contents stay in the object store and are
+ *  streamed to and from working files rather than held in memory.
+ */
+public class Blob {
 
-    private String id;
+    private final String id;
 
-    private byte[] contents;
-
-    private File filename;
-
-    private String filePath;
-
-    private File blobSaveFilename;
+    private Blob(String id) {
+        this.id = id;
+    }
 
-    public Blob(File filename) {
-        this.filename = filename;
-        this.contents = Utils.readContents(filename);
-        this.filePath = filename.getPath();
-        this.id = Utils.sha1(filePath, contents);
-        this.blobSaveFilename = Utils.join(Repository.BLOBS_DIR, id);
+    /** Returns the blob holding the contents of FILENAME, storing it in the
+     *  object store if it is not there already. */
+    public static Blob fromFile(File filename) {
+        return new Blob(ObjectStore.writeBlob(filename));
     }
 
-    public void save() {
-        Utils.writeObject(blobSaveFilename, this);
+    public static Blob fromId(String id) {
+        return new Blob(id);
     }
 
     public String getId() {
         return id;
     }
 
-    public String getFilePath() {
-        return filePath;
-    }
-
-    public File getFilename() {
-        return filename;
-    }
-
+    /** Returns the contents of this blob, read fully into memory. */
     public byte[] getContents() {
-        return contents;
+        return ObjectStore.read(ObjectStore.Type.BLOB, id);
     }
 
+    /** Writes the contents of this blob to FILENAME. */
+    public void writeTo(File filename) {
+        ObjectStore.copyTo(ObjectStore.Type.BLOB, id, filename);
+    }
 
 }
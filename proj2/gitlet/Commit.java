@@ -1,20 +1,39 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
 import static gitlet.Repository.CWD;
+import static gitlet.Utils.UID_LENGTH;
+import static gitlet.Utils.bytesToHex;
+import static gitlet.Utils.error;
+import static gitlet.Utils.hexToBytes;
 import static gitlet.Utils.join;
 
 /** Represents a gitlet commit object.
+ *
+ *  A commit is stored in the object store in a compact binary form,
+ *
+ *      version (1) | tree id (20) | parent count (1) | parent ids (20 each)
+ *          | time stamp length (2) | time stamp (UTF-8)
+ *          | message length (4) | message (UTF-8)
+ *
+ *  written by {@link #encode} and read by {@link #decode}.  Commits that
+ *  earlier versions stored with Java serialization are still read (see
+ *  {@link Legacy}) and are rewritten in this form by gc.
  *
  *  @author
  */
-public class Commit implements Serializable {
+public class Commit {
 
-    private static final Long serialVersionUID = -7961947390106190044L;
+    /** Version of the encoding written by encode. */
+    private static final byte VERSION = 1;
 
     /**
      * List all instance variables of the Commit class here with a useful
@@ -29,49 +48,175 @@ public class Commit implements Serializable {
 
     private String timeStamp;
 
-    private File commitSaveFilename;
+    /** The id of the tree holding the files of this commit. */
+    private String treeId;
 
-    private Map<String, String> filePathToBlobId;
+    /** Absolute path to blob id of every file in this commit, read from
+     *  the tree when first needed. */
+    private transient Map<String, String> filePathToBlobId;
 
     private List<String> parents;
 
     public Commit() {
         this.message = "initial commit";
         this.timeStamp = dateToTimeStamp(new Date(0));
-        this.filePathToBlobId = new HashMap<>();
+        this.treeId = Tree.update(null, new HashMap<>());
         this.parents = new ArrayList<>();
-        this.id = Utils.sha1(message, timeStamp, filePathToBlobId.toString(), parents.toString());
-        this.commitSaveFilename = Utils.join(Repository.COMMITS_DIR, id);
+        this.id = Utils.sha1(message, timeStamp, treeId, parents.toString());
     }
 
-    public Commit(String message, Map<String, String> filePathToBlobId, List<String> parents) {
+    /** A new commit whose files are those of BASE with CHANGES applied.
+     *  CHANGES maps absolute paths to their new blob ids, or to null for
+     *  files to remove. */
+    public Commit(String message, Commit base, Map<String, String> changes,
+                  List<String> parents) {
         this.message = message;
-        this.filePathToBlobId = filePathToBlobId;
         this.parents = parents;
+        Map<String, String> relativeChanges = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            relativeChanges.put(relativePath(change.getKey()), change.getValue());
+        }
+        this.treeId = Tree.update(base.treeId, relativeChanges);
         this.timeStamp = dateToTimeStamp(new Date());
-        this.id = Utils.sha1(message, timeStamp, filePathToBlobId.toString(), parents.toString());
-        this.commitSaveFilename = Utils.join(Repository.COMMITS_DIR, id);
+        this.id = Utils.sha1(message, timeStamp, treeId, parents.toString());
+    }
+
+    /** A commit read from the object store. */
+    Commit(String id, String message, String timeStamp, String treeId,
+           List<String> parents) {
+        this.id = id;
+        this.message = message;
+        this.timeStamp = timeStamp;
+        this.treeId = treeId;
+        this.parents = parents;
+    }
+
+    /** Returns absolute path PATH relative to the working directory, with
+     *  '/' as separator. */
+    static String relativePath(String path) {
+        return CWD.toPath().relativize(Path.of(path)).toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    private static String absolutePath(String relativePath) {
+        return join(CWD, relativePath).getPath();
+    }
+
+    public static Commit fromId(String id) {
+        return ObjectCache.get("commit " + id,
+            () -> decode(id, ObjectStore.read(ObjectStore.Type.COMMIT, id)),
+            c -> 256 + 2L * c.message.length());
+    }
+
+    /** Returns the stored form of this commit. */
+    byte[] encode() {
+        byte[] stamp = timeStamp.getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        int idBytes = UID_LENGTH / 2;
+        ByteBuffer buf = ByteBuffer.allocate(2 + idBytes * (1 + parents.size())
+                + 2 + stamp.length + 4 + text.length);
+        buf.put(VERSION).put(hexToBytes(treeId)).put((byte) parents.size());
+        for (String parent : parents) {
+            buf.put(hexToBytes(parent));
+        }
+        buf.putShort((short) stamp.length).put(stamp);
+        buf.putInt(text.length).put(text);
+        return buf.array();
+    }
+
+    /** Returns the commit with UID ID whose stored form is DATA. */
+    static Commit decode(String id, byte[] data) {
+        if (Legacy.isSerialized(data)) {
+            return Legacy.readCommit(id, data);
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            if (buf.get() != VERSION) {
+                throw error("Commit %s has an unknown format.", id);
+            }
+            byte[] uid = new byte[UID_LENGTH / 2];
+            buf.get(uid);
+            String tree = bytesToHex(uid);
+            int parentCount = buf.get() & 0xff;
+            List<String> parentIds = new ArrayList<>(parentCount);
+            for (int k = 0; k < parentCount; k += 1) {
+                buf.get(uid);
+                parentIds.add(bytesToHex(uid));
+            }
+            byte[] stamp = new byte[buf.getShort() & 0xffff];
+            buf.get(stamp);
+            byte[] text = new byte[buf.getInt()];
+            buf.get(text);
+            return new Commit(id, new String(text, StandardCharsets.UTF_8),
+                    new String(stamp, StandardCharsets.UTF_8), tree, parentIds);
+        } catch (BufferUnderflowException | NegativeArraySizeException excp) {
+            throw error("Corrupt commit %s.", id);
+        }
     }
 
     public void save() {
-        Utils.writeObject(commitSaveFilename, this);
+        ObjectStore.write(ObjectStore.Type.COMMIT, id, encode());
+        CommitGraph.get().add(this);
+        CommitIdIndex.add(id);
+        MessageIndex.add(this);
+    }
+
+    private static SimpleDateFormat timeStampFormat() {
+        return new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
     }
 
     private String dateToTimeStamp(Date date) {
-        return new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH)
-                .format(date);
+        return timeStampFormat().format(date);
+    }
+
+    /** Returns the time of this commit in seconds since the epoch. */
+    public long getTime() {
+        try {
+            return timeStampFormat().parse(timeStamp).getTime() / 1000;
+        } catch (ParseException excp) {
+            throw Utils.error("Bad time stamp in commit %s.", id);
+        }
     }
 
     public String getId() {
         return id;
     }
 
+    public String getTreeId() {
+        return treeId;
+    }
+
+    /** Returns an unmodifiable map from the absolute path of every file in
+     *  this commit to its blob id. */
     public Map<String, String> getFilePathToBlobId() {
+        if (filePathToBlobId == null) {
+            Map<String, String> files = new HashMap<>();
+            Tree.flatten(treeId, "", files);
+            filePathToBlobId = new HashMap<>();
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                filePathToBlobId.put(absolutePath(file.getKey()), file.getValue());
+            }
+            filePathToBlobId = Collections.unmodifiableMap(filePathToBlobId);
+        }
         return filePathToBlobId;
     }
 
+    /** Returns a map from the absolute path of every file that differs
+     *  between this commit and OTHER to its blob ids {here, in OTHER}, with
+     *  null where a commit lacks the file.  Unchanged directories are
+     *  skipped without being read. */
+    public Map<String, String[]> diff(Commit other) {
+        Map<String, String[]> changes = new HashMap<>();
+        Tree.diff(treeId, other.treeId, "", changes);
+        Map<String, String[]> result = new HashMap<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            result.put(absolutePath(change.getKey()), change.getValue());
+        }
+        return result;
+    }
+
     public boolean exists(String filePath) {
-        return filePathToBlobId.containsKey(filePath);
+        return getFilePathToBlobId().containsKey(filePath);
     }
 
     public List<String> getParents() {
@@ -88,14 +233,8 @@ public class Commit implements Serializable {
 
     public List<String> getFilenameList() {
         List<String> filename = new ArrayList<>();
-        List<Blob> blobList = new ArrayList<>();
-        for (String blobId : filePathToBlobId.values()) {
-            Blob blob = Utils.readObject(Utils.join(Repository.BLOBS_DIR, blobId), Blob.class);
-            blobList.add(blob);
-        }
-
-        for (Blob blob : blobList) {
-            filename.add(blob.getFilename().getName());
+        for (String filePath : getFilePathToBlobId().keySet()) {
+            filename.add(new File(filePath).getName());
         }
         return filename;
     }
@@ -103,12 +242,8 @@ public class Commit implements Serializable {
     public Blob getBlobByFilename(String filename) {
         File file = join(CWD, filename);
         String path = file.getPath();
-        String blobId = filePathToBlobId.get(path);
-        return Utils.readObject(Utils.join(Repository.BLOBS_DIR, blobId), Blob.class);
-    }
-
-    public List<String> getBlobIdList() {
-        return new ArrayList<>(filePathToBlobId.values());
+        String blobId = getFilePathToBlobId().get(path);
+        return Blob.fromId(blobId);
     }
 
 }
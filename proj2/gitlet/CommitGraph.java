@@ -0,0 +1,503 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/** The shape of the commit history, kept apart from the commits themselves
+ *  so that walking it never deserializes a Commit.
+ *
+ *  The graph lives in objects/info/commit-graph: an 8-byte header (magic,
+ *  version) followed by one fixed-size record per commit,
+ *
+ *      UID (20) | first parent (4) | second parent (4) | generation (4) | time (8)
+ *
+ *  Parents are given as positions of earlier records (-1 for none), so a
+ *  commit's parents are found in constant time.  The generation of a root
+ *  commit is 1 and that of any other commit is one more than the largest
+ *  generation of its parents, so an ancestor always has a smaller generation
+ *  than its descendants.  Records are only ever appended, parents first, by
+ *  {@link #add}, which {@link Commit#save} calls for every new commit.
+ *  Commits missing from the graph, e.g. those of a repository made before it
+ *  existed, are added on demand.  Appending holds a lock on the file and
+ *  first reads what other processes have appended, so that readers adding
+ *  commits at the same time do not corrupt it.
+ *
+ *  objects/info/changed-paths holds a Bloom filter of the paths each commit
+ *  changed relative to its first parent, files and the directories they
+ *  are in, as in Git: after an 8-byte header (magic, version), records
+ *
+ *      position (4) | length (2) | filter
+ *
+ *  with length TOO_MANY and no filter for commits that changed more than
+ *  MAX_CHANGES paths.  Each path sets BLOOM_HASHES bits, found by double
+ *  hashing with two MurmurHash3 values, in a filter of BITS_PER_PATH bits
+ *  per path, so a path the commit did not change is ruled out with a false
+ *  positive rate of about 1%.  {@link #add} writes the filter of each new
+ *  commit; {@link #writeMissingFilters}, run by gc, those of older ones.
+ *
+ *  @author
+ */
+class CommitGraph {
+
+    /** The commit-graph file, and the changed-path filters. */
+    static final File GRAPH_FILE = join(Repository.INFO_DIR, "commit-graph");
+    static final File FILTER_FILE = join(Repository.INFO_DIR, "changed-paths");
+
+    /** Header of GRAPH_FILE: "GCGR" and the format version. */
+    private static final int MAGIC = 0x47434752, VERSION = 1;
+
+    /** Header of FILTER_FILE: "GCPF" and the format version. */
+    private static final int FILTER_MAGIC = 0x47435046, FILTER_VERSION = 1;
+
+    /** Parameters of the changed-path filters. */
+    private static final int BITS_PER_PATH = 10, BLOOM_HASHES = 7, MAX_CHANGES = 512;
+
+    /** Length recorded for a commit that changed too many paths to filter. */
+    private static final int TOO_MANY = 0xffff;
+
+    /** Filter of a commit that changed too many paths: one that matches any
+     *  path. */
+    private static final byte[] MATCH_ALL = new byte[0];
+
+    /** Seeds of the two hashes of a path. */
+    private static final int SEED1 = 0x293ae76f, SEED2 = 0x7e646e2c;
+
+    private static final int HEADER_LENGTH = 8;
+
+    private static final int RECORD_LENGTH = UID_LENGTH / 2 + 20;
+
+    /** Marks used while searching for merge bases. */
+    private static final byte PARENT1 = 1, PARENT2 = 2, STALE = 4, RESULT = 8;
+
+    /** The graph of this repository, loaded on first use. */
+    private static CommitGraph graph;
+
+    /** Returns the commit graph of this repository. */
+    static CommitGraph get() {
+        if (graph == null || graph.stamp != fileStamp(GRAPH_FILE)) {
+            graph = new CommitGraph();
+        }
+        return graph;
+    }
+
+    /** The fileStamp of GRAPH_FILE as last read or written by this graph,
+     *  so that a long-running process notices when another one changes it. */
+    private long stamp;
+
+    /** Number of commits in the graph. */
+    private int size;
+
+    /** Per-commit columns of the graph, indexed by position. */
+    private String[] ids = new String[16];
+    private int[] parent1 = new int[16], parent2 = new int[16], generation = new int[16];
+    private long[] time = new long[16];
+
+    /** Changed-path filter of each commit, or null if it has none yet. */
+    private byte[][] filters = new byte[16][];
+
+    /** Bytes of GRAPH_FILE and FILTER_FILE read so far. */
+    private long graphRead, filtersRead;
+
+    /** Maps each UID to its position. */
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    private CommitGraph() {
+        stamp = fileStamp(GRAPH_FILE);
+        readNew();
+    }
+
+    /** Reads the records of GRAPH_FILE and FILTER_FILE that this graph has
+     *  not read yet. */
+    private void readNew() {
+        graphRead = readFrom(GRAPH_FILE, graphRead, MAGIC, VERSION, buf -> {
+            byte[] id = new byte[UID_LENGTH / 2];
+            while (buf.remaining() >= RECORD_LENGTH) {
+                buf.get(id);
+                append(bytesToHex(id), buf.getInt(), buf.getInt(), buf.getInt(), buf.getLong());
+            }
+        });
+        filtersRead = readFrom(FILTER_FILE, filtersRead, FILTER_MAGIC, FILTER_VERSION, buf -> {
+            while (buf.remaining() >= 6) {
+                int k = buf.getInt();
+                int length = buf.getShort() & 0xffff;
+                byte[] filter = length == TOO_MANY ? MATCH_ALL : new byte[length];
+                if (buf.remaining() < filter.length) {
+                    buf.position(buf.position() - 6);
+                    break;
+                }
+                buf.get(filter);
+                if (k >= 0 && k < size) {
+                    filters[k] = filter;
+                }
+            }
+        });
+    }
+
+    /** Passes the contents of FILE from offset START, or from its start
+     *  once its header, with the given MAGIC and VERSION, is checked if
+     *  START is 0, to READER, and returns the offset of the first byte that
+     *  READER left unread. */
+    private static long readFrom(File file, long start, int magic, int version,
+                                 Consumer<ByteBuffer> reader) {
+        if (!file.isFile() || file.length() <= start) {
+            return start;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate((int) (channel.size() - start));
+            while (buf.hasRemaining() && channel.read(buf, start + buf.position()) >= 0) {
+                continue;
+            }
+            buf.flip();
+            if (start == 0 && (buf.remaining() < HEADER_LENGTH || buf.getInt() != magic
+                    || buf.getInt() != version)) {
+                throw error("Corrupt commit graph.");
+            }
+            reader.accept(buf);
+            return start + buf.position();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void append(String id, int p1, int p2, int gen, long t) {
+        if (size == ids.length) {
+            int n = 2 * size;
+            ids = Arrays.copyOf(ids, n);
+            parent1 = Arrays.copyOf(parent1, n);
+            parent2 = Arrays.copyOf(parent2, n);
+            generation = Arrays.copyOf(generation, n);
+            time = Arrays.copyOf(time, n);
+            filters = Arrays.copyOf(filters, n);
+        }
+        ids[size] = id;
+        parent1[size] = p1;
+        parent2[size] = p2;
+        generation[size] = gen;
+        time[size] = t;
+        positions.put(id, size);
+        size += 1;
+    }
+
+    /** Rewrites the graph and the changed-path filters with just the
+     *  commits reachable from HEADS, after gc has removed others. */
+    static void rebuild(Collection<String> heads) {
+        GRAPH_FILE.delete();
+        FILTER_FILE.delete();
+        graph = null;
+        for (String head : heads) {
+            get().add(Commit.fromId(head));
+        }
+        get().writeMissingFilters();
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the UID of the commit at position K. */
+    String id(int k) {
+        return ids[k];
+    }
+
+    /** Returns the position of the commit with UID ID, adding it (and any
+     *  missing ancestors) from the object store if necessary. */
+    int position(String id) {
+        Integer k = positions.get(id);
+        if (k == null) {
+            add(Commit.fromId(id));
+            k = positions.get(id);
+        }
+        return k;
+    }
+
+    /** Returns the positions of the parents of the commit at K, first
+     *  parent first. */
+    int[] parents(int k) {
+        if (parent1[k] < 0) {
+            return new int[0];
+        } else if (parent2[k] < 0) {
+            return new int[] {parent1[k]};
+        }
+        return new int[] {parent1[k], parent2[k]};
+    }
+
+    int generation(int k) {
+        return generation[k];
+    }
+
+    /** Returns the commit time of the commit at K, in seconds since the
+     *  epoch. */
+    long time(int k) {
+        return time[k];
+    }
+
+    /** Records COMMIT, and any of its ancestors not yet recorded, in the
+     *  graph and in GRAPH_FILE, with the changed-path filter of COMMIT. */
+    @SuppressWarnings("try") // The lock is only held, never referenced.
+    void add(Commit commit) {
+        if (positions.containsKey(commit.getId())) {
+            return;
+        }
+        RepositoryLock.upgrade();
+        Deque<Commit> pending = new ArrayDeque<>();
+        pending.push(commit);
+        try (FileOutputStream out = openForAppend(GRAPH_FILE, MAGIC, VERSION);
+             FileLock lock = out.getChannel().lock()) {
+            readNew();
+            while (!pending.isEmpty()) {
+                Commit c = pending.peek();
+                boolean ready = true;
+                for (String parent : c.getParents()) {
+                    if (!positions.containsKey(parent)) {
+                        pending.push(Commit.fromId(parent));
+                        ready = false;
+                    }
+                }
+                if (!ready) {
+                    continue;
+                }
+                pending.pop();
+                if (!positions.containsKey(c.getId())) {
+                    writeRecord(out, c);
+                }
+            }
+            graphRead = GRAPH_FILE.length();
+            int k = positions.get(commit.getId());
+            if (filters[k] == null) {
+                writeFilters(List.of(k));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        stamp = fileStamp(GRAPH_FILE);
+    }
+
+    /** Writes the changed-path filters of every commit in the graph that
+     *  has none yet. */
+    @SuppressWarnings("try") // The lock is only held, never referenced.
+    void writeMissingFilters() {
+        try (FileOutputStream out = openForAppend(GRAPH_FILE, MAGIC, VERSION);
+             FileLock lock = out.getChannel().lock()) {
+            readNew();
+            List<Integer> missing = new ArrayList<>();
+            for (int k = 0; k < size; k += 1) {
+                if (filters[k] == null) {
+                    missing.add(k);
+                }
+            }
+            writeFilters(missing);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        stamp = fileStamp(GRAPH_FILE);
+    }
+
+    /** Computes the filters of the commits at POSITIONS and appends them to
+     *  FILTER_FILE.  The caller must hold the lock on GRAPH_FILE. */
+    private void writeFilters(List<Integer> positions) throws IOException {
+        if (positions.isEmpty()) {
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(
+                openForAppend(FILTER_FILE, FILTER_MAGIC, FILTER_VERSION))) {
+            for (int k : positions) {
+                byte[] filter = filter(k);
+                ByteBuffer header = ByteBuffer.allocate(6).putInt(k)
+                    .putShort((short) (filter == MATCH_ALL ? TOO_MANY : filter.length));
+                out.write(header.array());
+                out.write(filter);
+                filters[k] = filter;
+            }
+        }
+        filtersRead = FILTER_FILE.length();
+    }
+
+    /** Returns the changed-path filter of the commit at K. */
+    private byte[] filter(int k) {
+        String parentTree = parent1[k] < 0 ? null : Commit.fromId(ids[parent1[k]]).getTreeId();
+        Map<String, String[]> changes = new HashMap<>();
+        Tree.diff(parentTree, Commit.fromId(ids[k]).getTreeId(), "", changes);
+        Set<String> paths = new HashSet<>();
+        for (String path : changes.keySet()) {
+            for (int slash = path.length(); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+                paths.add(path.substring(0, slash));
+            }
+        }
+        if (paths.size() > MAX_CHANGES) {
+            return MATCH_ALL;
+        }
+        byte[] filter = new byte[(paths.size() * BITS_PER_PATH + 7) / 8];
+        for (String path : paths) {
+            for (int bit : bits(path, filter.length)) {
+                filter[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return filter;
+    }
+
+    /** Returns the positions of the bits set for PATH in a filter of LENGTH
+     *  bytes. */
+    private static int[] bits(String path, int length) {
+        byte[] data = path.getBytes(StandardCharsets.UTF_8);
+        int h1 = murmur3(SEED1, data), h2 = murmur3(SEED2, data);
+        int[] result = new int[BLOOM_HASHES];
+        for (int i = 0; i < BLOOM_HASHES; i += 1) {
+            result[i] = Integer.remainderUnsigned(h1 + i * h2, 8 * length);
+        }
+        return result;
+    }
+
+    /** Returns false if the commit at K certainly did not change PATH, a
+     *  path relative to the working directory with '/' as separator, and
+     *  true if it may have. */
+    boolean mayHaveChanged(int k, String path) {
+        byte[] filter = filters[k];
+        if (filter == null || filter == MATCH_ALL) {
+            return true;
+        } else if (filter.length == 0) {
+            return false;
+        }
+        for (int bit : bits(path, filter.length)) {
+            if ((filter[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the 32-bit MurmurHash3 of DATA with SEED. */
+    private static int murmur3(int seed, byte[] data) {
+        final int c1 = 0xcc9e2d51, c2 = 0x1b873593;
+        int h = seed;
+        int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i += 1) {
+            int k = (data[4 * i] & 0xff) | (data[4 * i + 1] & 0xff) << 8
+                | (data[4 * i + 2] & 0xff) << 16 | (data[4 * i + 3] & 0xff) << 24;
+            k = Integer.rotateLeft(k * c1, 15) * c2;
+            h = Integer.rotateLeft(h ^ k, 13) * 5 + 0xe6546b64;
+        }
+        int tail = data.length & 3;
+        if (tail > 0) {
+            int k = 0;
+            for (int i = 0; i < tail; i += 1) {
+                k |= (data[4 * blocks + i] & 0xff) << (8 * i);
+            }
+            h ^= Integer.rotateLeft(k * c1, 15) * c2;
+        }
+        h ^= data.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns a stream appending to FILE, in INFO_DIR, starting it with a
+     *  header of MAGIC and VERSION if it is new. */
+    private static FileOutputStream openForAppend(File file, int magic, int version)
+        throws IOException {
+        if (!Repository.INFO_DIR.isDirectory() && !Repository.INFO_DIR.mkdirs()) {
+            throw new IllegalArgumentException("Failed to create directory");
+        }
+        FileOutputStream out = new FileOutputStream(file, true);
+        if (out.getChannel().size() == 0) {
+            out.write(ByteBuffer.allocate(HEADER_LENGTH).putInt(magic).putInt(version).array());
+        }
+        return out;
+    }
+
+    /** Appends the record for C, whose parents are already in the graph,
+     *  to OUT and to this graph. */
+    private void writeRecord(OutputStream out, Commit c) throws IOException {
+        int p1 = -1, p2 = -1;
+        int gen = 1;
+        if (c.getParents().size() > 0) {
+            p1 = positions.get(c.getParents().get(0));
+            gen = Math.max(gen, generation[p1] + 1);
+        }
+        if (c.getParents().size() > 1) {
+            p2 = positions.get(c.getParents().get(1));
+            gen = Math.max(gen, generation[p2] + 1);
+        }
+        long t = c.getTime();
+        out.write(ByteBuffer.allocate(RECORD_LENGTH).put(hexToBytes(c.getId()))
+                .putInt(p1).putInt(p2).putInt(gen).putLong(t).array());
+        append(c.getId(), p1, p2, gen, t);
+    }
+
+    /** Returns the UID of a latest common ancestor of the commits with UIDs
+     *  FIRST and SECOND.
+     *
+     *  Commits are visited in order of decreasing generation (then time),
+     *  each marked with which of the two it is reachable from.  A commit
+     *  reachable from both is a common ancestor; since nothing visited
+     *  later can be its descendant, the first one found is a latest one.
+     *  Its ancestors are marked stale, and the walk stops once only stale
+     *  commits remain, so it never goes much below the merge base. */
+    String mergeBase(String first, String second) {
+        int a = position(first), b = position(second);
+        if (a == b) {
+            return first;
+        }
+        byte[] marks = new byte[size];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) ->
+                generation[x] != generation[y] ? Integer.compare(generation[y], generation[x])
+                        : Long.compare(time[y], time[x]));
+        marks[a] |= PARENT1;
+        marks[b] |= PARENT2;
+        queue.add(a);
+        queue.add(b);
+        int result = -1;
+        while (hasNonStale(queue, marks)) {
+            int k = queue.poll();
+            int flags = marks[k] & (PARENT1 | PARENT2 | STALE);
+            if (flags == (PARENT1 | PARENT2)) {
+                if (result < 0) {
+                    result = k;
+                }
+                marks[k] |= RESULT;
+                flags |= STALE;
+            }
+            for (int p : parents(k)) {
+                if ((marks[p] & flags) == flags) {
+                    continue;
+                }
+                marks[p] |= flags;
+                queue.add(p);
+            }
+        }
+        return result < 0 ? null : ids[result];
+    }
+
+    private static boolean hasNonStale(PriorityQueue<Integer> queue, byte[] marks) {
+        for (int k : queue) {
+            if ((marks[k] & STALE) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
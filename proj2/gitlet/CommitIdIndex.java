@@ -0,0 +1,177 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** An index of all commit UIDs, for resolving abbreviated ids.
+ *
+ *  objects/info/commit-ids holds the raw 20-byte UIDs of commits in sorted
+ *  order, so the commits starting with a given prefix are found by binary
+ *  search.  To avoid rewriting that file on every commit, new UIDs are
+ *  appended to objects/info/commit-ids.log and only merged into the sorted
+ *  file once MAX_LOG of them have built up; a lookup also scans the log.
+ *  Both files are rebuilt from the object store if the sorted one is
+ *  missing.  A crash between writing a merged sorted file and deleting the
+ *  log leaves UIDs in both, and each is reported once.
+ *
+ *  @author
+ */
+class CommitIdIndex {
+
+    /** The sorted index, and the log of UIDs not yet merged into it. */
+    static final File INDEX_FILE = join(Repository.INFO_DIR, "commit-ids");
+    static final File LOG_FILE = join(Repository.INFO_DIR, "commit-ids.log");
+
+    /** Length of a raw UID. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Most UIDs kept in LOG_FILE. */
+    private static final int MAX_LOG = 256;
+
+    /** Records the commit UID ID in the index. */
+    static void add(String id) {
+        if (!matches(id, 1).isEmpty()) {
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(LOG_FILE, true)) {
+            out.write(hexToBytes(id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (LOG_FILE.length() >= MAX_LOG * ID_BYTES) {
+            Set<String> ids = new TreeSet<>(readLog());
+            MappedByteBuffer index = map(INDEX_FILE);
+            for (int k = 0; k < index.capacity() / ID_BYTES; k += 1) {
+                ids.add(idAt(index, k));
+            }
+            writeSorted(new ArrayList<>(ids));
+            LOG_FILE.delete();
+        }
+    }
+
+    /** Returns the UIDs of up to LIMIT commits whose UIDs start with PREFIX,
+     *  in lexicographic order. */
+    static List<String> matches(String prefix, int limit) {
+        prefix = prefix.toLowerCase();
+        if (!prefix.matches("[0-9a-f]{1,40}")) {
+            return new ArrayList<>();
+        }
+        if (!INDEX_FILE.isFile()) {
+            RepositoryLock.upgrade();
+            rebuild();
+        }
+        Set<String> result = new TreeSet<>();
+        MappedByteBuffer index = map(INDEX_FILE);
+        int count = index.capacity() / ID_BYTES;
+        byte[] lowest = hexToBytes((prefix + "0".repeat(UID_LENGTH)).substring(0, UID_LENGTH));
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(index, mid, lowest) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < count && result.size() < limit; k += 1) {
+            String id = idAt(index, k);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        for (String id : readLog()) {
+            if (id.startsWith(prefix) && result.size() < limit) {
+                result.add(id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Rewrites the index from the commits in the object store. */
+    static void rebuild() {
+        rebuild(id -> true);
+    }
+
+    /** Rewrites the index from the commits in the object store that KEEP
+     *  accepts. */
+    static void rebuild(Predicate<String> keep) {
+        if (!Repository.INFO_DIR.isDirectory() && !Repository.INFO_DIR.mkdirs()) {
+            throw new IllegalArgumentException("Failed to create directory");
+        }
+        List<String> ids = new ArrayList<>();
+        for (String id : ObjectStore.list(ObjectStore.Type.COMMIT)) {
+            if (keep.test(id)) {
+                ids.add(id);
+            }
+        }
+        writeSorted(ids);
+        LOG_FILE.delete();
+    }
+
+    private static void writeSorted(List<String> ids) {
+        byte[] contents = new byte[ids.size() * ID_BYTES];
+        for (int k = 0; k < ids.size(); k += 1) {
+            System.arraycopy(hexToBytes(ids.get(k)), 0, contents, k * ID_BYTES, ID_BYTES);
+        }
+        try {
+            File temp = File.createTempFile("tmp_ids_", null, Repository.INFO_DIR);
+            writeContents(temp, contents);
+            Files.move(temp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static List<String> readLog() {
+        List<String> result = new ArrayList<>();
+        if (LOG_FILE.isFile()) {
+            byte[] log = readContents(LOG_FILE);
+            byte[] id = new byte[ID_BYTES];
+            for (int k = 0; k + ID_BYTES <= log.length; k += ID_BYTES) {
+                System.arraycopy(log, k, id, 0, ID_BYTES);
+                result.add(bytesToHex(id));
+            }
+        }
+        return result;
+    }
+
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static String idAt(MappedByteBuffer index, int k) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(k * ID_BYTES, id);
+        return bytesToHex(id);
+    }
+
+    /** Compares the K-th UID of INDEX with ID, as unsigned bytes. */
+    private static int compare(MappedByteBuffer index, int k, byte[] id) {
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Integer.compare(index.get(k * ID_BYTES + i) & 0xff, id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Settings of a gitlet repository, read from .gitlet/config.
+ *
+ *  Each non-blank line of that file has the form KEY = VALUE, and lines
+ *  starting with # are comments.  The recognized keys are
+ *
+ *      core.compression       zlib level (0-9, or -1 for the default) used
+ *                             for loose objects and packs.
+ *      core.fsync             whether (true or false) updates of refs and the
+ *                             staging area first fsync what they refer to;
+ *                             defaults to true.  See {@link Transaction}.
+ *      core.objectCacheSize   bytes of decoded objects kept in memory by
+ *                             {@link ObjectCache}; defaults to 32 MiB.
+ *      checkout.workers       number of threads (1-256) writing files during
+ *                             checkout, reset and merge, comparing them to
+ *                             find renames and syncing them as transactions
+ *                             commit; defaults to the number of processors.
+ *      diff.renameLimit       most files removed or added on which status,
+ *                             merge and diff look for renames by
+ *                             similarity; defaults to 1000.  See
+ *                             {@link Renames}.
+ *      pack.depth             longest chain of deltas (0-1000) that gc
+ *                             stores in packs; defaults to 50, and 0 stores
+ *                             every object whole.
+ *      gc.auto                number of loose objects above which commands
+ *                             that change the repository run a step of
+ *                             garbage collection; defaults to 6700, and 0
+ *                             turns that off.  See {@link GarbageCollector}.
+ *      gc.budget              milliseconds such a step may take; defaults
+ *                             to 100.
+ *
+ *  @author
+ */
+class Config {
+
+    /** The configuration file. */
+    static final File CONFIG_FILE = join(Repository.GITLET_DIR, "config");
+
+    /** The settings in CONFIG_FILE, loaded on first use, and the fileStamp
+     *  of CONFIG_FILE they were loaded from. */
+    private static Map<String, String> values;
+    private static long stamp;
+
+    private static Map<String, String> values() {
+        if (values == null || stamp != fileStamp(CONFIG_FILE)) {
+            values = new HashMap<>();
+            stamp = fileStamp(CONFIG_FILE);
+            if (CONFIG_FILE.isFile()) {
+                for (String line : readContentsAsString(CONFIG_FILE).split("\n")) {
+                    line = line.trim();
+                    int eq = line.indexOf('=');
+                    if (line.isEmpty() || line.startsWith("#") || eq < 0) {
+                        continue;
+                    }
+                    values.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+                }
+            }
+        }
+        return values;
+    }
+
+    /** Returns the value of KEY, or DEFAULTVALUE if it is not set. */
+    static String get(String key, String defaultValue) {
+        return values().getOrDefault(key, defaultValue);
+    }
+
+    /** Returns the boolean value (true or false) of KEY, or DEFAULTVALUE if
+     *  it is not set. */
+    static boolean getBoolean(String key, boolean defaultValue) {
+        String value = values().get(key);
+        if (value == null) {
+            return defaultValue;
+        } else if (value.equals("true") || value.equals("false")) {
+            return value.equals("true");
+        }
+        throw error("Bad value for %s in config: %s", key, value);
+    }
+
+    /** Returns the integer value of KEY, or DEFAULTVALUE if it is not set.
+     *  The value must lie between MIN and MAX inclusive. */
+    static int getInt(String key, int defaultValue, int min, int max) {
+        String value = values().get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value);
+            if (result >= min && result <= max) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            // Fall through to the error below.
+        }
+        throw error("Bad value for %s in config: %s", key, value);
+    }
+}
@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A long-running gitlet process that runs commands sent to it over a
+ *  Unix-domain socket, so that a command costs neither JVM startup nor
+ *  reloading the repository's state.
+ *
+ *  "gitlet daemon" listens on .gitlet/daemon.sock and serves one command
+ *  at a time.  A client connects, sends the command's arguments, each
+ *  followed by a NUL byte, and shuts down its side of the connection; the
+ *  daemon runs the command with standard output sent back over the
+ *  connection, which it then closes.  The command "daemon stop" stops it.
+ *  gitlet-client, next to this package, is such a client.
+ *
+ *  Between commands the daemon keeps what it has loaded: the object cache,
+ *  the commit graph, the stat cache, the list of packs and the
+ *  configuration.  Each of these is reloaded when its file changes, so
+ *  commands run without the daemon in the meantime are seen.
+ *
+ *  @author
+ */
+class Daemon {
+
+    /** The socket the daemon listens on. */
+    static final File SOCKET_FILE = join(Repository.GITLET_DIR, "daemon.sock");
+
+    /** Serves commands until told to stop. */
+    static void serve() {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath());
+        if (SOCKET_FILE.exists()) {
+            try {
+                SocketChannel.open(address).close();
+            } catch (IOException excp) {
+                SOCKET_FILE.delete();
+            }
+            if (SOCKET_FILE.exists()) {
+                throw new GitletException("A gitlet daemon is already running.");
+            }
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    System.err.println("gitlet daemon: " + excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /** Returns the path of SOCKET_FILE, relative to the working directory
+     *  where that is shorter, since socket paths are limited to about a
+     *  hundred bytes. */
+    private static Path socketPath() {
+        Path absolute = SOCKET_FILE.toPath();
+        Path relative = Repository.CWD.toPath().relativize(absolute);
+        return relative.toString().length() < absolute.toString().length()
+                ? relative : absolute;
+    }
+
+    /** Runs the command sent by CLIENT, writing its output back.  Returns
+     *  false iff the daemon should stop. */
+    private static boolean handle(SocketChannel client) throws IOException {
+        String[] args = readArguments(client);
+        PrintStream console = System.out;
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(client)), false, StandardCharsets.UTF_8);
+        System.setOut(out);
+        try {
+            if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+                out.println("Daemon stopped.");
+                return false;
+            } else if (args.length > 0 && args[0].equals("daemon")) {
+                throw new GitletException("A gitlet daemon is already running.");
+            }
+            Main.run(args);
+        } catch (GitletException excp) {
+            out.println(excp.getMessage());
+        } catch (RuntimeException excp) {
+            excp.printStackTrace(out);
+        } finally {
+            out.flush();
+            System.setOut(console);
+            Instrumentation.report(args.length == 0 ? "" : args[0]);
+        }
+        return true;
+    }
+
+    /** Reads the NUL-terminated arguments sent by CLIENT, up to the end of
+     *  its input. */
+    private static String[] readArguments(SocketChannel client) throws IOException {
+        byte[] request = Channels.newInputStream(client).readAllBytes();
+        List<String> args = new ArrayList<>();
+        int start = 0;
+        for (int k = 0; k < request.length; k += 1) {
+            if (request[k] == 0) {
+                args.add(new String(request, start, k - start, StandardCharsets.UTF_8));
+                start = k + 1;
+            }
+        }
+        return args.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Runs commands through a gitlet daemon, started as a separate process
+ *  in a new repository, as gitlet-client does, and checks that it reports
+ *  the I/O of each command.
+ *
+ *  @author
+ */
+public class DaemonTest {
+
+    private Path dir;
+    private Process daemon;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("gitlet-daemon");
+        assertEquals("", gitlet("init"));
+        ProcessBuilder builder = new ProcessBuilder(java("daemon")).directory(dir.toFile());
+        builder.environment().put("GITLET_IO_STATS_JSON", stats().toString());
+        daemon = builder.redirectErrorStream(true).start();
+        Path socket = dir.resolve(".gitlet").resolve("daemon.sock");
+        for (int k = 0; k < 100 && !Files.exists(socket); k += 1) {
+            Thread.sleep(100);
+        }
+        assertTrue("daemon should be listening", Files.exists(socket));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (daemon.isAlive()) {
+            daemon.destroyForcibly();
+        }
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void runAndStopTest() throws Exception {
+        Files.writeString(dir.resolve("wug.txt"), "This is a wug.\n");
+        assertEquals("", send("add", "wug.txt"));
+        assertEquals("", send("commit", "added wug"));
+        assertTrue(send("log").contains("\nadded wug\n"));
+        assertEquals("Found no commit with that message.\n", send("find", "no such commit"));
+        assertEquals("A gitlet daemon is already running.\n", gitlet("daemon"));
+
+        assertEquals("Daemon stopped.\n", send("daemon", "stop"));
+        assertTrue("daemon should exit", daemon.waitFor(10, TimeUnit.SECONDS));
+        assertFalse(Files.exists(dir.resolve(".gitlet").resolve("daemon.sock")));
+        assertTrue(gitlet("log").contains("\nadded wug\n"));
+        String stats = Files.readString(stats());
+        assertTrue(stats.startsWith("{\"command\":\"add\","));
+        assertTrue(stats.contains("\n{\"command\":\"commit\","));
+    }
+
+    /** Returns the file to which the daemon reports its I/O, command by
+     *  command (see {@link Instrumentation}). */
+    private Path stats() {
+        return dir.resolve("stats.json");
+    }
+
+    /** Sends ARGS to the daemon and returns what it writes back. */
+    private String send(String... args) throws IOException {
+        UnixDomainSocketAddress address =
+            UnixDomainSocketAddress.of(dir.resolve(".gitlet").resolve("daemon.sock"));
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(address);
+            StringBuilder request = new StringBuilder();
+            for (String arg : args) {
+                request.append(arg).append('\0');
+            }
+            Channels.newOutputStream(channel)
+                .write(request.toString().getBytes(StandardCharsets.UTF_8));
+            channel.shutdownOutput();
+            return new String(Channels.newInputStream(channel).readAllBytes(),
+                StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Runs gitlet with ARGS in the repository, without the daemon, and
+     *  returns its output. */
+    private String gitlet(String... args) throws Exception {
+        Process process = new ProcessBuilder(java(args)).directory(dir.toFile())
+            .redirectErrorStream(true).start();
+        String out = new String(process.getInputStream().readAllBytes(),
+            StandardCharsets.UTF_8);
+        process.waitFor();
+        return out;
+    }
+
+    /** Returns the command that runs gitlet.Main with ARGS. */
+    private static String[] java(String... args) {
+        String[] command = new String[args.length + 4];
+        command[0] = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        command[1] = "-cp";
+        command[2] = System.getProperty("java.class.path");
+        command[3] = "gitlet.Main";
+        System.arraycopy(args, 0, command, 4, args.length);
+        return command;
+    }
+}
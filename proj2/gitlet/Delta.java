@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+
+/** Deltas: encodings of one byte array as changes to another, its base,
+ *  used to store similar blobs compactly in packs.
+ *
+ *  A delta is the base's length and the result's length, as varints, then
+ *  a sequence of instructions, each either
+ *
+ *      0x80 | offset (varint) | length (varint)
+ *
+ *  to copy LENGTH bytes of the base starting at OFFSET, or a byte N from 1
+ *  to 127 followed by N literal bytes to insert.
+ *
+ *  Deltas are made as in Git: every aligned BLOCK-byte block of the base is
+ *  indexed by a hash, a rolling hash of the BLOCK bytes at each position of
+ *  the target is looked up in that index, and a block found there is
+ *  extended as far as it matches in both directions and copied.  So the
+ *  cost is linear in the lengths of base and target, and the size of the
+ *  delta grows with the differences between them rather than their size.
+ *
+ *  @author
+ */
+class Delta {
+
+    /** Length of the base blocks that are indexed. */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash, and its power BLOCK - 1. */
+    private static final int PRIME = 0x01000193;
+    private static final int TOP_POWER = power(PRIME, BLOCK - 1);
+
+    /** Most slots of the block index looked at for one hash. */
+    private static final int MAX_PROBES = 8;
+
+    /** Instruction tags. */
+    private static final int COPY = 0x80, MAX_INSERT = 0x7f;
+
+    /** Returns a delta from BASE to TARGET, or null if it would take at
+     *  least half the length of TARGET, so that it is not worth using. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int[] index = index(base);
+        int mask = index.length - 1;
+        int limit = target.length / 2;
+        int pos = 0, pending = 0;
+        int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length && out.size() < limit) {
+            int candidate = -1;
+            int slot = mix(hash) & mask;
+            for (int probes = 0; index[slot] != 0 && probes < MAX_PROBES; probes += 1) {
+                int offset = index[slot] - 1;
+                if (Arrays.equals(base, offset, offset + BLOCK, target, pos, pos + BLOCK)) {
+                    candidate = offset;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (candidate < 0) {
+                if (pos + BLOCK < target.length) {
+                    hash = (hash - target[pos] * TOP_POWER) * PRIME + target[pos + BLOCK];
+                }
+                pos += 1;
+                continue;
+            }
+            int start = pos, from = candidate;
+            while (start > pending && from > 0 && base[from - 1] == target[start - 1]) {
+                start -= 1;
+                from -= 1;
+            }
+            int end = pos + BLOCK;
+            for (int b = candidate + BLOCK; end < target.length && b < base.length
+                     && base[b] == target[end]; b += 1) {
+                end += 1;
+            }
+            writeInsert(out, target, pending, start);
+            out.write(COPY);
+            writeVarint(out, from);
+            writeVarint(out, end - start);
+            pos = pending = end;
+            if (pos + BLOCK <= target.length) {
+                hash = hash(target, pos);
+            }
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.size() < limit ? out.toByteArray() : null;
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw error("Delta does not match its base.");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int n = 0;
+        try {
+            while (pos[0] < delta.length) {
+                int cmd = delta[pos[0]++] & 0xff;
+                if (cmd == COPY) {
+                    int offset = readVarint(delta, pos), length = readVarint(delta, pos);
+                    System.arraycopy(base, offset, result, n, length);
+                    n += length;
+                } else if (cmd > 0 && cmd <= MAX_INSERT) {
+                    System.arraycopy(delta, pos[0], result, n, cmd);
+                    pos[0] += cmd;
+                    n += cmd;
+                } else {
+                    throw error("Corrupt delta.");
+                }
+            }
+        } catch (IndexOutOfBoundsException excp) {
+            throw error("Corrupt delta.");
+        }
+        if (n != result.length) {
+            throw error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Returns an open-addressed table of (offset + 1) of the aligned
+     *  blocks of BASE, by hash; 0 marks a free slot.  Each block is stored
+     *  within MAX_PROBES slots of where its hash puts it, or left out, as
+     *  are repeats of a block already stored, so that repetitive bases do
+     *  not make lookups slow. */
+    private static int[] index(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(2 * blocks, 8)) * 2;
+        int[] index = new int[size];
+        for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+            int slot = mix(hash(base, offset)) & (size - 1);
+            for (int probes = 0; probes < MAX_PROBES; probes += 1) {
+                int other = index[slot] - 1;
+                if (other < 0) {
+                    index[slot] = offset + 1;
+                    break;
+                } else if (Arrays.equals(base, other, other + BLOCK, base, offset,
+                        offset + BLOCK)) {
+                    break;
+                }
+                slot = (slot + 1) & (size - 1);
+            }
+        }
+        return index;
+    }
+
+    /** Returns the rolling hash of DATA[POS .. POS + BLOCK). */
+    private static int hash(byte[] data, int pos) {
+        int hash = 0;
+        for (int k = pos; k < pos + BLOCK; k += 1) {
+            hash = hash * PRIME + data[k];
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int power(int x, int n) {
+        int result = 1;
+        for (int k = 0; k < n; k += 1) {
+            result *= x;
+        }
+        return result;
+    }
+
+    /** Writes instructions inserting DATA[FROM .. TO) to OUT. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(data, from, n);
+            from += n;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads a varint from DATA at POS[0], advancing POS[0] past it. */
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos[0] >= data.length) {
+                break;
+            }
+            int b = data[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw error("Corrupt delta.");
+    }
+}
@@ -0,0 +1,404 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Line-level comparison and three-way merging of file contents.
+ *
+ *  Texts are split into lines (each keeping its newline), and every
+ *  distinct line is interned as a small integer, so that the algorithms
+ *  below work on int arrays and compare lines in constant time.  Two texts
+ *  are compared with Myers' O(ND) algorithm in its linear-space form,
+ *  which finds a longest common subsequence of their lines by recursively
+ *  splitting both at the middle snake of an optimal edit path.
+ *
+ *  A three-way merge matches the lines of both versions against those of
+ *  their base.  Base lines matched in both versions delimit stable runs;
+ *  between them, a region changed in only one version is taken from that
+ *  version, one changed identically in both is taken once, and one changed
+ *  differently is a conflict, written with the same markers gitlet has
+ *  always used, but around just the lines in conflict.
+ *
+ *  The same matching gives the hunks of a unified diff between two texts,
+ *  each change shown with up to CONTEXT unchanged lines around it.
+ *
+ *  @author
+ */
+class Diff {
+
+    /** Conflict markers. */
+    private static final byte[] OURS_MARKER = bytes("<<<<<<< HEAD\n"),
+        SEPARATOR = bytes("=======\n"), THEIRS_MARKER = bytes(">>>>>>>\n");
+
+    /** Unchanged lines shown before and after each change in a unified diff. */
+    private static final int CONTEXT = 3;
+
+    /** Marks a last line that has no newline in a unified diff. */
+    private static final byte[] NO_NEWLINE = bytes("\n\\ No newline at end of file\n");
+
+    /** The lines of one text. */
+    static class Lines {
+        /** The text. */
+        final byte[] data;
+        /** Line K is data[starts[K] .. starts[K + 1]). */
+        final int[] starts;
+        /** Interned number of each line. */
+        final int[] ids;
+
+        Lines(byte[] data, int[] starts, int[] ids) {
+            this.data = data;
+            this.starts = starts;
+            this.ids = ids;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /** Writes lines FROM .. TO-1 to OUT as they are. */
+        void writeTo(ByteArrayOutputStream out, int from, int to) {
+            out.write(data, starts[from], starts[to] - starts[from]);
+        }
+
+        /** Writes lines FROM .. TO-1 to OUT as one side of a conflict,
+         *  ending with a newline if there are any, so that the marker
+         *  written next starts a line of its own. */
+        void writeConflictSide(ByteArrayOutputStream out, int from, int to) {
+            writeTo(out, from, to);
+            if (to > from && data[starts[to] - 1] != '\n') {
+                out.write('\n');
+            }
+        }
+    }
+
+    /** Numbers distinct lines, so that equal lines of any of the texts
+     *  split by one Interner get equal ids. */
+    static class Interner {
+        /** Open-addressed table of id + 1 by line hash; 0 for free. */
+        private int[] slots = new int[1024];
+        /** Hash, text and bounds of the first occurrence of each id. */
+        private int[] hashes = new int[256];
+        private byte[][] texts = new byte[256][];
+        private int[] starts = new int[256], ends = new int[256];
+        private int count;
+
+        /** Returns the lines of DATA. */
+        Lines split(byte[] data) {
+            int[] lineStarts = new int[16];
+            int n = 0;
+            for (int pos = 0; pos < data.length; pos += 1) {
+                if (pos == 0 || data[pos - 1] == '\n') {
+                    if (n + 1 == lineStarts.length) {
+                        lineStarts = Arrays.copyOf(lineStarts, 2 * n);
+                    }
+                    lineStarts[n] = pos;
+                    n += 1;
+                }
+            }
+            lineStarts[n] = data.length;
+            int[] ids = new int[n];
+            for (int k = 0; k < n; k += 1) {
+                ids[k] = intern(data, lineStarts[k], lineStarts[k + 1]);
+            }
+            return new Lines(data, Arrays.copyOf(lineStarts, n + 1), ids);
+        }
+
+        private int intern(byte[] data, int start, int end) {
+            int hash = 1;
+            for (int k = start; k < end; k += 1) {
+                hash = 31 * hash + data[k];
+            }
+            int mask = slots.length - 1;
+            for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+                int id = slots[slot] - 1;
+                if (id < 0) {
+                    return add(slot, hash, data, start, end);
+                } else if (hashes[id] == hash && Arrays.equals(texts[id], starts[id],
+                        ends[id], data, start, end)) {
+                    return id;
+                }
+            }
+        }
+
+        private int add(int slot, int hash, byte[] data, int start, int end) {
+            if (count == hashes.length) {
+                int n = 2 * count;
+                hashes = Arrays.copyOf(hashes, n);
+                texts = Arrays.copyOf(texts, n);
+                starts = Arrays.copyOf(starts, n);
+                ends = Arrays.copyOf(ends, n);
+            }
+            int id = count;
+            hashes[id] = hash;
+            texts[id] = data;
+            starts[id] = start;
+            ends[id] = end;
+            count += 1;
+            slots[slot] = id + 1;
+            if (2 * count > slots.length) {
+                slots = new int[2 * slots.length];
+                for (int k = 0; k < count; k += 1) {
+                    int s = mix(hashes[k]) & (slots.length - 1);
+                    while (slots[s] != 0) {
+                        s = (s + 1) & (slots.length - 1);
+                    }
+                    slots[s] = k + 1;
+                }
+            }
+            return id;
+        }
+
+        private static int mix(int hash) {
+            hash *= 0x9e3779b9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /** Returns, for each element of A, the index of the element of B it is
+     *  matched with in a longest common subsequence of A and B, or -1 if it
+     *  is not in that subsequence.  Matched indices increase along A. */
+    static int[] match(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        Arrays.fill(result, -1);
+        int max = a.length + b.length + 1;
+        new Diff(a, b, result, new int[2 * max + 2], new int[2 * max + 2])
+            .compare(0, a.length, 0, b.length);
+        return result;
+    }
+
+    /** The result of a three-way merge. */
+    static class Merge {
+        /** The merged contents. */
+        final byte[] contents;
+        /** Number of conflicting regions in CONTENTS. */
+        final int conflicts;
+
+        Merge(byte[] contents, int conflicts) {
+            this.contents = contents;
+            this.conflicts = conflicts;
+        }
+    }
+
+    /** Returns the merge of the changes made to BASE in OURS and in THEIRS.
+     *  Texts containing NUL bytes are taken as binary and merged whole. */
+    static Merge merge(byte[] base, byte[] ours, byte[] theirs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (isBinary(base) || isBinary(ours) || isBinary(theirs)) {
+            out.writeBytes(OURS_MARKER);
+            out.writeBytes(ours);
+            out.writeBytes(SEPARATOR);
+            out.writeBytes(theirs);
+            out.writeBytes(THEIRS_MARKER);
+            return new Merge(out.toByteArray(), 1);
+        }
+        Interner interner = new Interner();
+        Lines o = interner.split(base), a = interner.split(ours), b = interner.split(theirs);
+        int[] matchA = match(o.ids, a.ids), matchB = match(o.ids, b.ids);
+        int conflicts = 0;
+        int i = 0, j = 0, k = 0;
+        while (i < o.size() || j < a.size() || k < b.size()) {
+            if (i < o.size() && matchA[i] == j && matchB[i] == k) {
+                o.writeTo(out, i, i + 1);
+                i += 1;
+                j += 1;
+                k += 1;
+                continue;
+            }
+            int next = i;
+            while (next < o.size() && (matchA[next] < 0 || matchB[next] < 0)) {
+                next += 1;
+            }
+            int endA = next < o.size() ? matchA[next] : a.size();
+            int endB = next < o.size() ? matchB[next] : b.size();
+            boolean changedA = !same(o, i, next, a, j, endA);
+            boolean changedB = !same(o, i, next, b, k, endB);
+            if (!changedA) {
+                b.writeTo(out, k, endB);
+            } else if (!changedB || same(a, j, endA, b, k, endB)) {
+                a.writeTo(out, j, endA);
+            } else {
+                out.writeBytes(OURS_MARKER);
+                a.writeConflictSide(out, j, endA);
+                out.writeBytes(SEPARATOR);
+                b.writeConflictSide(out, k, endB);
+                out.writeBytes(THEIRS_MARKER);
+                conflicts += 1;
+            }
+            i = next;
+            j = endA;
+            k = endB;
+        }
+        return new Merge(out.toByteArray(), conflicts);
+    }
+
+    /** Returns the hunks of a unified diff from text A to text B, or null
+     *  if either contains NUL bytes and so is taken as binary. */
+    static byte[] unified(byte[] a, byte[] b) {
+        if (isBinary(a) || isBinary(b)) {
+            return null;
+        }
+        Interner interner = new Interner();
+        Lines x = interner.split(a), y = interner.split(b);
+        int[] matchX = match(x.ids, y.ids);
+        int n = x.size() + y.size();
+        byte[] kinds = new byte[n];
+        int[] posX = new int[n + 1], posY = new int[n + 1];
+        int ops = 0, i = 0, j = 0;
+        while (i < x.size() || j < y.size()) {
+            posX[ops] = i;
+            posY[ops] = j;
+            if (i < x.size() && matchX[i] < 0) {
+                kinds[ops] = '-';
+                i += 1;
+            } else if (j < (i < x.size() ? matchX[i] : y.size())) {
+                kinds[ops] = '+';
+                j += 1;
+            } else {
+                kinds[ops] = ' ';
+                i += 1;
+                j += 1;
+            }
+            ops += 1;
+        }
+        posX[ops] = i;
+        posY[ops] = j;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int change = nextChange(kinds, 0, ops); change < ops; ) {
+            int start = Math.max(0, change - CONTEXT), end = change + 1;
+            for (int next = nextChange(kinds, end, ops); next < ops
+                     && next - end <= 2 * CONTEXT; next = nextChange(kinds, end, ops)) {
+                end = next + 1;
+            }
+            end = Math.min(ops, end + CONTEXT);
+            int countX = posX[end] - posX[start], countY = posY[end] - posY[start];
+            out.writeBytes(bytes(String.format("@@ -%d,%d +%d,%d @@\n",
+                countX == 0 ? posX[start] : posX[start] + 1, countX,
+                countY == 0 ? posY[start] : posY[start] + 1, countY)));
+            for (int op = start; op < end; op += 1) {
+                out.write(kinds[op]);
+                if (kinds[op] == '+') {
+                    writeLine(out, y, posY[op]);
+                } else {
+                    writeLine(out, x, posX[op]);
+                }
+            }
+            change = nextChange(kinds, end, ops);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the index of the first change in KINDS[FROM .. TO), or TO. */
+    private static int nextChange(byte[] kinds, int from, int to) {
+        while (from < to && kinds[from] == ' ') {
+            from += 1;
+        }
+        return from;
+    }
+
+    /** Writes line K of LINES to OUT, noting if it lacks a newline. */
+    private static void writeLine(ByteArrayOutputStream out, Lines lines, int k) {
+        int end = lines.starts[k + 1];
+        out.write(lines.data, lines.starts[k], end - lines.starts[k]);
+        if (lines.data[end - 1] != '\n') {
+            out.writeBytes(NO_NEWLINE);
+        }
+    }
+
+    /** Returns true iff lines FROMX .. TOX-1 of X equal lines FROMY .. TOY-1
+     *  of Y. */
+    private static boolean same(Lines x, int fromX, int toX, Lines y, int fromY, int toY) {
+        return Arrays.equals(x.ids, fromX, toX, y.ids, fromY, toY);
+    }
+
+    private static boolean isBinary(byte[] data) {
+        for (byte b : data) {
+            if (b == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The sequences being compared, the matches found so far, and the
+     *  forward and backward furthest-reaching paths by diagonal. */
+    private final int[] a, b, result, forward, backward;
+
+    private Diff(int[] a, int[] b, int[] result, int[] forward, int[] backward) {
+        this.a = a;
+        this.b = b;
+        this.result = result;
+        this.forward = forward;
+        this.backward = backward;
+    }
+
+    /** Records in RESULT a longest common subsequence of a[ALO .. AHI) and
+     *  b[BLO .. BHI). */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            result[aLo++] = bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            result[--aHi] = --bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        compare(aLo, snake[0], bLo, snake[1]);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+            result[x] = y;
+        }
+        compare(snake[2], aHi, snake[3], bHi);
+    }
+
+    /** Returns {x0, y0, x1, y1} such that a[x0 .. x1) = b[y0 .. y1) is the
+     *  middle snake of a shortest edit script from a[ALO .. AHI) to
+     *  b[BLO .. BHI), whose first and last elements differ. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int off = (n + m + 1) / 2 + 1;
+        forward[off + 1] = 0;
+        backward[off + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[off + k - 1] < forward[off + k + 1])
+                    ? forward[off + k + 1] : forward[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x, y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[off + k] = x;
+                if (odd && k >= delta - (d - 1) && k <= delta + (d - 1)
+                        && x + backward[off + delta - k] >= n) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && backward[off + k - 1] < backward[off + k + 1])
+                    ? backward[off + k + 1] : backward[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x, y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[off + k] = x;
+                if (!odd && delta - k >= -d && delta - k <= d
+                        && x + forward[off + delta - k] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+}
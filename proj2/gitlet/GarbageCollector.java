@@ -0,0 +1,346 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** Removal of the objects no branch can reach any more, such as the
+ *  commits of a deleted branch or those left behind by reset.
+ *
+ *  A collection starts by taking the object index: the sorted UIDs of
+ *  every commit, tree and blob in the store, numbered in that order, so
+ *  that one bit per object (in a BitSet) records whether it has been found
+ *  reachable.  Marking starts from the roots, the heads of all branches and
+ *  the blobs in the staging area, and proceeds through parents, trees and
+ *  blobs, each object being read once however many commits share it.
+ *  Objects written after the index was taken are not in it and are always
+ *  kept.  Sweeping then removes every object in the index left unmarked.
+ *
+ *  "gc" does all that at once, repacking what is kept into as few packs as
+ *  possible (see {@link ObjectStore#gc}).  "gc --budget MS" instead does
+ *  at most about MS milliseconds of the work and saves where it stopped in
+ *  .gitlet/gc-state, so that a collection can be spread over many short
+ *  runs.  Its phases are marking, packing the live loose objects, deleting
+ *  the dead ones, and rewriting the packs that hold dead objects, and each
+ *  run makes progress in at least one of them.  Every run first marks from
+ *  the roots again, which is enough to keep whatever the branches reach
+ *  now, since objects never change and an object in the index can only
+ *  refer to others in it.  When gc.auto (see {@link Config}) is positive,
+ *  every command that changes the repository runs such a step of gc.budget
+ *  milliseconds once more than gc.auto objects are loose, or while a
+ *  collection is under way.
+ *
+ *  Collections that remove commits rebuild the {@link CommitGraph},
+ *  {@link CommitIdIndex} and {@link MessageIndex} from the live commits
+ *  before sweeping starts, so that commands run between steps never find
+ *  a commit that has been deleted.
+ *
+ *  @author
+ */
+class GarbageCollector {
+
+    /** Progress of the collection under way, if any. */
+    static final File STATE_FILE = join(Repository.GITLET_DIR, "gc-state");
+
+    /** Header of STATE_FILE: "GGCS" and the format version. */
+    private static final int MAGIC = 0x47474353, VERSION = 1;
+
+    /** Phases of a collection. */
+    private static final int MARK = 0, PACK_LOOSE = 1, SWEEP_LOOSE = 2, SWEEP_PACKS = 3;
+
+    /** Defaults of gc.auto and gc.budget. */
+    private static final int DEFAULT_AUTO = 6700, DEFAULT_BUDGET = 100;
+
+    /** Object types in the order of the object index. */
+    private static final ObjectStore.Type[] TYPES = {
+        ObjectStore.Type.COMMIT, ObjectStore.Type.TREE, ObjectStore.Type.BLOB
+    };
+
+    /** The object index: the sorted UIDs of each of TYPES.  Object K of
+     *  type T is numbered first[T] + K. */
+    private final String[][] ids = new String[TYPES.length][];
+    private final int[] first = new int[TYPES.length];
+
+    /** Marks of reachable objects, by number. */
+    private final BitSet marks;
+
+    /** Marked commits and trees whose references are still to be followed. */
+    private final Deque<Integer> pending = new ArrayDeque<>();
+
+    /** Objects outside the index visited in this run. */
+    private final Set<String> visitedNew = new HashSet<>();
+
+    /** The current phase. */
+    private int phase;
+
+    private GarbageCollector(String[][] ids, BitSet marks, int phase) {
+        int total = 0;
+        for (int t = 0; t < TYPES.length; t += 1) {
+            this.ids[t] = ids[t];
+            first[t] = total;
+            total += ids[t].length;
+        }
+        this.marks = marks;
+        this.phase = phase;
+    }
+
+    /** Starts a collection, taking the object index. */
+    private static GarbageCollector start() {
+        String[][] ids = new String[TYPES.length][];
+        for (int t = 0; t < TYPES.length; t += 1) {
+            ids[t] = ObjectStore.list(TYPES[t]).toArray(new String[0]);
+        }
+        return new GarbageCollector(ids, new BitSet(), MARK);
+    }
+
+    /** Collects all garbage at once: the gc command. */
+    static void collect() {
+        STATE_FILE.delete();
+        GarbageCollector gc = start();
+        gc.mark(Long.MAX_VALUE);
+        gc.rebuildIndexes();
+        ObjectStore.gc(gc::isLive);
+    }
+
+    /** Works on the collection under way, or a new one, for about BUDGET
+     *  milliseconds, and returns true iff it is complete. */
+    static boolean step(long budget) {
+        long deadline = System.nanoTime() + budget * 1_000_000;
+        GarbageCollector gc = STATE_FILE.isFile() ? load() : null;
+        if (gc == null) {
+            if (ObjectStore.hasLegacyCommits()) {
+                collect();
+                return true;
+            }
+            gc = start();
+        }
+        if (gc.phase > MARK) {
+            gc.mark(Long.MAX_VALUE);
+        } else if (gc.mark(deadline)) {
+            gc.phase = PACK_LOOSE;
+        }
+        while (gc.phase > MARK && gc.phase <= SWEEP_PACKS) {
+            boolean done;
+            if (gc.phase == PACK_LOOSE) {
+                done = ObjectStore.packLoose(gc::isLive, deadline);
+            } else if (gc.phase == SWEEP_LOOSE) {
+                done = ObjectStore.sweepLoose(gc::isLive, deadline);
+            } else {
+                done = ObjectStore.sweepPacks(gc::isLive, deadline);
+            }
+            if (!done) {
+                break;
+            }
+            if (gc.phase == PACK_LOOSE) {
+                gc.rebuildIndexes();
+            }
+            gc.phase += 1;
+            if (System.nanoTime() > deadline) {
+                break;
+            }
+        }
+        if (gc.phase > SWEEP_PACKS) {
+            STATE_FILE.delete();
+            return true;
+        }
+        gc.save();
+        return false;
+    }
+
+    /** Runs a step of gc.budget milliseconds if gc.auto calls for one. */
+    static void auto() {
+        int limit = Config.getInt("gc.auto", DEFAULT_AUTO, 0, Integer.MAX_VALUE);
+        if (limit == 0) {
+            return;
+        }
+        int loose = 0;
+        for (ObjectStore.Type type : TYPES) {
+            String[] names = type.dir.list((dir, name) -> name.length() == UID_LENGTH);
+            loose += names == null ? 0 : names.length;
+        }
+        if (loose > limit || STATE_FILE.isFile()) {
+            step(Config.getInt("gc.budget", DEFAULT_BUDGET, 1, Integer.MAX_VALUE));
+        }
+    }
+
+    /** Returns false iff object ID of type TYPE is in the index and has not
+     *  been found reachable. */
+    private boolean isLive(ObjectStore.Type type, String id) {
+        int k = number(type, id);
+        return k < 0 || marks.get(k);
+    }
+
+    /** Returns the number of object ID of type TYPE, or -1 if it is not in
+     *  the index. */
+    private int number(ObjectStore.Type type, String id) {
+        int t = Arrays.asList(TYPES).indexOf(type);
+        int k = Arrays.binarySearch(ids[t], id);
+        return k < 0 ? -1 : first[t] + k;
+    }
+
+    /** Marks from the roots, then follows pending references until none is
+     *  left or the time given by System.nanoTime() passes DEADLINE, and
+     *  returns true iff none is left. */
+    private boolean mark(long deadline) {
+        for (String branch : Repository.branchNames()) {
+            visit(ObjectStore.Type.COMMIT, readContentsAsString(join(Repository.HEADS_DIR,
+                    branch)));
+        }
+        for (String blob : Stage.read().getAdded().values()) {
+            visit(ObjectStore.Type.BLOB, blob);
+        }
+        for (int n = 1; !pending.isEmpty(); n += 1) {
+            if (n % 64 == 0 && System.nanoTime() > deadline) {
+                return false;
+            }
+            int k = pending.pop();
+            if (k < first[1]) {
+                scan(ObjectStore.Type.COMMIT, ids[0][k]);
+            } else {
+                scan(ObjectStore.Type.TREE, ids[1][k - first[1]]);
+            }
+        }
+        return true;
+    }
+
+    /** Records that object ID of type TYPE is reachable.  One in the index
+     *  is marked, and if it refers to others, queued; one outside it is
+     *  followed at once, since nothing in the index can lead back to it. */
+    private void visit(ObjectStore.Type type, String id) {
+        int k = number(type, id);
+        if (k < 0) {
+            if (visitedNew.add(id)) {
+                scan(type, id);
+            }
+        } else if (!marks.get(k)) {
+            marks.set(k);
+            if (type != ObjectStore.Type.BLOB) {
+                pending.push(k);
+            }
+        }
+    }
+
+    /** Visits the objects that object ID of type TYPE refers to. */
+    private void scan(ObjectStore.Type type, String id) {
+        if (type == ObjectStore.Type.COMMIT) {
+            Commit commit = Commit.fromId(id);
+            visit(ObjectStore.Type.TREE, commit.getTreeId());
+            for (String parent : commit.getParents()) {
+                visit(ObjectStore.Type.COMMIT, parent);
+            }
+        } else if (type == ObjectStore.Type.TREE) {
+            List<String> trees = new ArrayList<>(), blobs = new ArrayList<>();
+            Tree.children(id, trees, blobs);
+            for (String tree : trees) {
+                visit(ObjectStore.Type.TREE, tree);
+            }
+            for (String blob : blobs) {
+                visit(ObjectStore.Type.BLOB, blob);
+            }
+        }
+    }
+
+    /** Rebuilds the commit indexes from the live commits if any are to be
+     *  removed. */
+    private void rebuildIndexes() {
+        if (marks.nextClearBit(0) >= first[1]) {
+            return;
+        }
+        List<String> heads = new ArrayList<>();
+        for (String branch : Repository.branchNames()) {
+            heads.add(readContentsAsString(join(Repository.HEADS_DIR, branch)));
+        }
+        CommitGraph.rebuild(heads);
+        CommitIdIndex.rebuild(id -> isLive(ObjectStore.Type.COMMIT, id));
+        MessageIndex.rebuild(id -> isLive(ObjectStore.Type.COMMIT, id));
+    }
+
+    /** Writes the state of this collection to STATE_FILE:
+     *
+     *      magic (4) | version (4) | phase (4) | count (4) per type
+     *      | UIDs (20 each) | marks (8 per 64 objects)
+     *      | pending count (4) | pending numbers (4 each) */
+    private void save() {
+        try {
+            File temp = File.createTempFile("tmp_gc_", null, Repository.GITLET_DIR);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(phase);
+                for (String[] typeIds : ids) {
+                    out.writeInt(typeIds.length);
+                }
+                for (String[] typeIds : ids) {
+                    for (String id : typeIds) {
+                        out.write(hexToBytes(id));
+                    }
+                }
+                long[] words = marks.toLongArray();
+                int total = first[TYPES.length - 1] + ids[TYPES.length - 1].length;
+                for (int w = 0; w < (total + 63) / 64; w += 1) {
+                    out.writeLong(w < words.length ? words[w] : 0);
+                }
+                out.writeInt(pending.size());
+                for (int k : pending) {
+                    out.writeInt(k);
+                }
+            }
+            Files.move(temp.toPath(), STATE_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the collection saved in STATE_FILE, or null if it cannot be
+     *  read, in which case a new one is started. */
+    private static GarbageCollector load() {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(readContents(STATE_FILE));
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            int phase = buf.getInt();
+            String[][] ids = new String[TYPES.length][];
+            int total = 0;
+            for (int t = 0; t < TYPES.length; t += 1) {
+                ids[t] = new String[buf.getInt()];
+                total += ids[t].length;
+            }
+            byte[] id = new byte[UID_LENGTH / 2];
+            for (String[] typeIds : ids) {
+                for (int k = 0; k < typeIds.length; k += 1) {
+                    buf.get(id);
+                    typeIds[k] = bytesToHex(id);
+                }
+            }
+            long[] words = new long[(total + 63) / 64];
+            for (int w = 0; w < words.length; w += 1) {
+                words[w] = buf.getLong();
+            }
+            GarbageCollector gc = new GarbageCollector(ids, BitSet.valueOf(words), phase);
+            for (int n = buf.getInt(); n > 0; n -= 1) {
+                gc.pending.addLast(buf.getInt());
+            }
+            return gc;
+        } catch (BufferUnderflowException | NegativeArraySizeException excp) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Opt-in counts of the file and hashing operations of one gitlet command:
+ *  the reads and writes of Utils and ObjectStore, and Utils.sha1.  Each
+ *  operation is recorded against its call site, the first frame outside the
+ *  class that declares it, with the number of calls, the bytes read, written
+ *  or hashed, and the nanoseconds spent.  An operation that calls another
+ *  (ObjectStore.copyTo calling writeContents, say) is recorded once, as the
+ *  outer one.
+ *
+ *  Nothing is recorded unless one of two environment variables is set.
+ *  With GITLET_IO_STATS, Main prints a summary, the most expensive sites
+ *  first, to standard error at the end of the command.  With
+ *  GITLET_IO_STATS_JSON=FILE, it appends the records to FILE as one line
+ *  of JSON per command, which keeps the records of the gitlet processes
+ *  that fetch and push start apart from those of the command itself.
+ *
+ *  @author
+ */
+class Instrumentation {
+
+    /** The environment variables that turn recording on. */
+    private static final String SUMMARY_VARIABLE = "GITLET_IO_STATS",
+        JSON_VARIABLE = "GITLET_IO_STATS_JSON";
+
+    /** Whether operations are being recorded. */
+    static final boolean ENABLED = System.getenv(SUMMARY_VARIABLE) != null
+        || System.getenv(JSON_VARIABLE) != null;
+
+    /** The totals of one operation at one call site. */
+    private static class Site {
+        final String operation, caller;
+        long calls, bytes, nanos;
+
+        Site(String operation, String caller) {
+            this.operation = operation;
+            this.caller = caller;
+        }
+    }
+
+    /** The sites recorded so far, by operation and caller. */
+    private static final Map<String, Site> SITES = new LinkedHashMap<>();
+
+    /** How many recorded operations each thread is inside. */
+    private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    /** Marks the start of an operation, returning the time to pass to
+     *  {@link #end}, which must be called however the operation ends. */
+    static long start() {
+        if (!ENABLED) {
+            return 0;
+        }
+        DEPTH.get()[0] += 1;
+        return System.nanoTime();
+    }
+
+    /** Records OPERATION, begun at time START, as having read, written or
+     *  hashed BYTES bytes, unless it was called by another operation. */
+    static void end(String operation, long start, long bytes) {
+        if (!ENABLED) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        int[] depth = DEPTH.get();
+        depth[0] -= 1;
+        if (depth[0] > 0) {
+            return;
+        }
+        String caller = caller();
+        synchronized (SITES) {
+            Site site = SITES.computeIfAbsent(operation + " " + caller,
+                k -> new Site(operation, caller));
+            site.calls += 1;
+            site.bytes += bytes;
+            site.nanos += nanos;
+        }
+    }
+
+    /** Returns the call site of the operation that is calling {@link #end},
+     *  as CLASS.METHOD:LINE. */
+    private static String caller() {
+        return WALKER.walk(frames -> {
+            Iterator<StackWalker.StackFrame> iter = frames
+                .dropWhile(f -> f.getClassName().equals(Instrumentation.class.getName()))
+                .iterator();
+            String owner = iter.next().getClassName();
+            while (iter.hasNext()) {
+                StackWalker.StackFrame frame = iter.next();
+                if (!frame.getClassName().equals(owner)) {
+                    String name = frame.getClassName();
+                    return name.substring(name.lastIndexOf('.') + 1) + "."
+                        + frame.getMethodName() + ":" + frame.getLineNumber();
+                }
+            }
+            return "?";
+        });
+    }
+
+    /** Reports what has been recorded during COMMAND, as set up by the
+     *  environment variables described above, and starts recording afresh,
+     *  so that each command a {@link Daemon} runs is reported apart. */
+    static void report(String command) {
+        if (!ENABLED) {
+            return;
+        }
+        List<Site> sites;
+        synchronized (SITES) {
+            sites = new ArrayList<>(SITES.values());
+            SITES.clear();
+        }
+        sites.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        if (System.getenv(SUMMARY_VARIABLE) != null) {
+            System.err.print(summary(command, sites));
+        }
+        String jsonFile = System.getenv(JSON_VARIABLE);
+        if (jsonFile != null && !jsonFile.isEmpty()) {
+            try {
+                Files.write(Paths.get(jsonFile),
+                    json(command, sites).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException excp) {
+                System.err.println("Unable to write " + jsonFile + ": " + excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns a table of SITES, with their totals first. */
+    private static String summary(String command, List<Site> sites) {
+        long calls = 0, bytes = 0, nanos = 0;
+        for (Site site : sites) {
+            calls += site.calls;
+            bytes += site.bytes;
+            nanos += site.nanos;
+        }
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("gitlet %s: %d calls, %d bytes, %.3f ms%n",
+            command, calls, bytes, nanos / 1e6));
+        out.append(String.format("%10s %8s %12s  %-24s %s%n",
+            "ms", "calls", "bytes", "operation", "call site"));
+        for (Site site : sites) {
+            out.append(String.format("%10.3f %8d %12d  %-24s %s%n", site.nanos / 1e6,
+                site.calls, site.bytes, site.operation, site.caller));
+        }
+        return out.toString();
+    }
+
+    /** Returns SITES as a line of JSON. */
+    private static String json(String command, List<Site> sites) {
+        StringBuilder out = new StringBuilder();
+        out.append("{\"command\":").append(quote(command)).append(",\"sites\":[");
+        for (int k = 0; k < sites.size(); k += 1) {
+            Site site = sites.get(k);
+            out.append(k == 0 ? "" : ",")
+                .append("{\"operation\":").append(quote(site.operation))
+                .append(",\"site\":").append(quote(site.caller))
+                .append(",\"calls\":").append(site.calls)
+                .append(",\"bytes\":").append(site.bytes)
+                .append(",\"nanos\":").append(site.nanos).append('}');
+        }
+        return out.append("]}\n").toString();
+    }
+
+    /** Returns S as a JSON string literal. */
+    private static String quote(String s) {
+        StringBuilder out = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < ' ') {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+}
@@ -0,0 +1,163 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Readers for the objects that earlier versions of gitlet stored with Java
+ *  serialization, so that their repositories stay usable.
+ *
+ *  Those versions wrote Commit, Blob and Stage objects with
+ *  ObjectOutputStream: loose objects as bare serialized files without a
+ *  header, and the staging area as .gitlet/add_stage and
+ *  .gitlet/remove_stage.  Since the classes have changed since, such a
+ *  stream is read into a copy of the class as it was, chosen by the class
+ *  name and fields recorded in the stream, and converted from there.  Each
+ *  copy keeps the serialVersionUID that Java computed for the original.
+ *  Commits of the oldest form hold their whole file map, which is turned
+ *  into tree objects as it is read.  The blobs of that time were keyed by
+ *  path as well as contents, so each is stored again under the id of its
+ *  contents alone, which is what commits and the stage then refer to.
+ *
+ *  @author
+ */
+class Legacy {
+
+    /** Java serialization stream magic number. */
+    private static final int STREAM_MAGIC = 0xaced;
+
+    /** Legacy staging files. */
+    static final File ADD_STAGE_FILE = join(Repository.GITLET_DIR, "add_stage");
+    static final File REMOVE_STAGE_FILE = join(Repository.GITLET_DIR, "remove_stage");
+
+    /** A commit that holds its file map. */
+    private static class MapCommit implements Serializable {
+        private static final long serialVersionUID = -8220963533632667825L;
+        private String message, id, timeStamp;
+        private File commitSaveFilename;
+        private Map<String, String> filePathToBlobId;
+        private List<String> parents;
+    }
+
+    /** A commit that refers to a tree. */
+    private static class TreeCommit implements Serializable {
+        private static final long serialVersionUID = 6319537372645775967L;
+        private String message, id, timeStamp, treeId;
+        private List<String> parents;
+    }
+
+    /** A blob holding its contents. */
+    private static class OldBlob implements Serializable {
+        private static final long serialVersionUID = 738242367030888396L;
+        private String id, filePath;
+        private byte[] contents;
+        private File filename, blobSaveFilename;
+    }
+
+    /** One half of the staging area. */
+    private static class OldStage implements Serializable {
+        private static final long serialVersionUID = 2252635642428631042L;
+        private Map<String, String> filenameToBlobId;
+    }
+
+    /** Returns true iff DATA starts like a Java serialization stream. */
+    static boolean isSerialized(byte[] data) {
+        return data.length >= 2 && ((data[0] & 0xff) << 8 | data[1] & 0xff) == STREAM_MAGIC;
+    }
+
+    /** Returns true iff the first two bytes of IN, which must support
+     *  mark, start a Java serialization stream.  IN is left unchanged. */
+    static boolean isSerialized(InputStream in) throws IOException {
+        in.mark(2);
+        byte[] start = in.readNBytes(2);
+        in.reset();
+        return isSerialized(start);
+    }
+
+    /** Returns the commit with UID ID serialized in DATA. */
+    static Commit readCommit(String id, byte[] data) {
+        Object obj = read(data);
+        if (obj instanceof TreeCommit) {
+            TreeCommit c = (TreeCommit) obj;
+            return new Commit(id, c.message, c.timeStamp, c.treeId, c.parents);
+        }
+        MapCommit c = (MapCommit) obj;
+        Map<String, String> files = new HashMap<>();
+        for (Map.Entry<String, String> file : c.filePathToBlobId.entrySet()) {
+            files.put(Commit.relativePath(file.getKey()), blobId(file.getValue()));
+        }
+        return new Commit(id, c.message, c.timeStamp, Tree.update(null, files),
+                new ArrayList<>(c.parents));
+    }
+
+    /** Content ids of the legacy blobs converted so far, by legacy id. */
+    private static final Map<String, String> BLOB_IDS = new HashMap<>();
+
+    /** Returns the id that blob LEGACYID has when keyed by its contents
+     *  alone, storing it under that id. */
+    private static String blobId(String legacyId) {
+        String id = BLOB_IDS.get(legacyId);
+        if (id == null) {
+            byte[] contents = ObjectStore.read(ObjectStore.Type.BLOB, legacyId);
+            id = sha1((Object) contents);
+            ObjectStore.write(ObjectStore.Type.BLOB, id, contents);
+            BLOB_IDS.put(legacyId, id);
+        }
+        return id;
+    }
+
+    /** Returns the file contents held by the blob serialized in DATA. */
+    static byte[] readBlobContents(byte[] data) {
+        return ((OldBlob) read(data)).contents;
+    }
+
+    /** Returns the path-to-blob map of the staging file FILE, or an empty
+     *  map if there is none. */
+    static Map<String, String> readStage(File file) {
+        Map<String, String> result = new HashMap<>();
+        if (file.isFile()) {
+            OldStage stage = (OldStage) read(readContents(file));
+            for (Map.Entry<String, String> e : stage.filenameToBlobId.entrySet()) {
+                result.put(e.getKey(), blobId(e.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the object serialized in DATA, read as one of the classes
+     *  above. */
+    private static Object read(byte[] data) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+                ObjectStreamClass desc = super.readClassDescriptor();
+                switch (desc.getName()) {
+                    case "gitlet.Commit":
+                        return ObjectStreamClass.lookup(desc.getField("treeId") != null
+                                ? TreeCommit.class : MapCommit.class);
+                    case "gitlet.Blob":
+                        return ObjectStreamClass.lookup(OldBlob.class);
+                    case "gitlet.Stage":
+                        return ObjectStreamClass.lookup(OldStage.class);
+                    default:
+                        return desc;
+                }
+            }
+        }) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException excp) {
+            throw error("Unreadable object: %s", excp.getMessage());
+        }
+    }
+}
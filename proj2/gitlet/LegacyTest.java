@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Opens a repository written in the format of the first version of
+ *  gitlet, which stored Commit, Blob and Stage objects with Java
+ *  serialization (see {@link Legacy}), and runs log, checkout and gc in it.
+ *
+ *  The repository is written by the test itself, from copies of those
+ *  three classes with the fields and names they had, since its commits
+ *  record the absolute paths of their files.  Commands are run in a
+ *  separate process, in the repository's directory.
+ *
+ *  @author
+ */
+public class LegacyTest {
+
+    /** The serializable classes of the first version: their fields and the
+     *  serialVersionUIDs Java computed for them. */
+    private static final Map<String, String> OLD_CLASSES = Map.of(
+        "Commit", "public class Commit implements java.io.Serializable {\n"
+            + "    private static final long serialVersionUID = -8220963533632667825L;\n"
+            + "    private String message, id, timeStamp;\n"
+            + "    private java.io.File commitSaveFilename;\n"
+            + "    private java.util.Map<String, String> filePathToBlobId;\n"
+            + "    private java.util.List<String> parents;\n"
+            + "    public Commit(String message, String id, String timeStamp,\n"
+            + "                  java.io.File commitSaveFilename,\n"
+            + "                  java.util.Map<String, String> filePathToBlobId,\n"
+            + "                  java.util.List<String> parents) {\n"
+            + "        this.message = message; this.id = id; this.timeStamp = timeStamp;\n"
+            + "        this.commitSaveFilename = commitSaveFilename;\n"
+            + "        this.filePathToBlobId = filePathToBlobId; this.parents = parents;\n"
+            + "    }\n"
+            + "}\n",
+        "Blob", "public class Blob implements java.io.Serializable {\n"
+            + "    private static final long serialVersionUID = 738242367030888396L;\n"
+            + "    private String id;\n"
+            + "    private byte[] contents;\n"
+            + "    private java.io.File filename;\n"
+            + "    private String filePath;\n"
+            + "    private java.io.File blobSaveFilename;\n"
+            + "    public Blob(String id, byte[] contents, java.io.File filename,\n"
+            + "                java.io.File blobSaveFilename) {\n"
+            + "        this.id = id; this.contents = contents; this.filename = filename;\n"
+            + "        this.filePath = filename.getPath();\n"
+            + "        this.blobSaveFilename = blobSaveFilename;\n"
+            + "    }\n"
+            + "}\n",
+        "Stage", "public class Stage implements java.io.Serializable {\n"
+            + "    private static final long serialVersionUID = 2252635642428631042L;\n"
+            + "    private final java.util.Map<String, String> filenameToBlobId =\n"
+            + "        new java.util.HashMap<>();\n"
+            + "}\n");
+
+    private static final String WUG = "This is a wug.\n", NOTWUG = "This is not a wug.\n";
+
+    private Path dir, classes;
+    private URLClassLoader loader;
+    private String initial, wug, notwug;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("gitlet-legacy").toRealPath();
+        classes = Files.createTempDirectory("gitlet-legacy-classes");
+        Path source = Files.createDirectories(classes.resolve("gitlet"));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        for (Map.Entry<String, String> c : OLD_CLASSES.entrySet()) {
+            Path file = source.resolve(c.getKey() + ".java");
+            Files.writeString(file, "package gitlet;\n" + c.getValue());
+            assertEquals(0, compiler.run(null, null, null, file.toString()));
+        }
+        loader = new URLClassLoader(new URL[] {classes.toUri().toURL()},
+            ClassLoader.getPlatformClassLoader());
+
+        Path objects = dir.resolve(".gitlet").resolve("objects");
+        Files.createDirectories(objects.resolve("commits"));
+        Files.createDirectories(objects.resolve("blobs"));
+        Files.createDirectories(dir.resolve(".gitlet").resolve("refs").resolve("heads"));
+        Files.writeString(dir.resolve(".gitlet").resolve("HEAD"), "master");
+        for (String stage : List.of("add_stage", "remove_stage")) {
+            Files.write(dir.resolve(".gitlet").resolve(stage),
+                serialize(loader.loadClass("gitlet.Stage").getConstructor().newInstance()));
+        }
+
+        initial = writeCommit("initial commit", new Date(0), new HashMap<>(), List.of());
+        Map<String, String> files = new HashMap<>();
+        files.put(file("wug.txt").getPath(), writeBlob("wug.txt", WUG));
+        wug = writeCommit("added wug", new Date(), files, List.of(initial));
+        files.put(file("wug.txt").getPath(), writeBlob("wug.txt", NOTWUG));
+        notwug = writeCommit("changed wug", new Date(), files, List.of(wug));
+        Files.writeString(dir.resolve(".gitlet").resolve("refs").resolve("heads")
+            .resolve("master"), notwug);
+        Files.writeString(file("wug.txt").toPath(), NOTWUG);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        loader.close();
+        for (Path root : List.of(dir, classes)) {
+            try (var paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Test
+    public void logCheckoutAndGcTest() throws Exception {
+        String log = gitlet("log");
+        assertTrue(log.startsWith("===\ncommit " + notwug + "\n"));
+        assertTrue(log.contains("\ncommit " + wug + "\n"));
+        assertTrue(log.contains("\ncommit " + initial + "\n"));
+        assertTrue(gitlet("status").contains("=== Staged Files ===\n\n"));
+
+        assertEquals("", gitlet("checkout", wug, "--", "wug.txt"));
+        assertEquals(WUG, Files.readString(file("wug.txt").toPath()));
+        assertEquals("", gitlet("checkout", "--", "wug.txt"));
+        assertEquals(NOTWUG, Files.readString(file("wug.txt").toPath()));
+
+        gitlet("gc");
+        assertEquals(log, gitlet("log"));
+        assertEquals("", gitlet("branch", "other"));
+        assertEquals("", gitlet("reset", wug));
+        assertEquals(WUG, Files.readString(file("wug.txt").toPath()));
+        Files.writeString(file("notwug.txt").toPath(), NOTWUG);
+        assertEquals("", gitlet("add", "notwug.txt"));
+        assertEquals("", gitlet("commit", "added notwug"));
+        gitlet("gc");
+        assertEquals("", gitlet("checkout", notwug, "--", "wug.txt"));
+        assertEquals(NOTWUG, Files.readString(file("wug.txt").toPath()));
+    }
+
+    /** Returns working file NAME. */
+    private File file(String name) {
+        return dir.resolve(name).toFile();
+    }
+
+    /** Stores a blob of file NAME with CONTENTS as the first version did,
+     *  returning its id. */
+    private String writeBlob(String name, String contents) throws Exception {
+        byte[] data = contents.getBytes(StandardCharsets.UTF_8);
+        String id = Utils.sha1(file(name).getPath(), data);
+        File saved = dir.resolve(".gitlet/objects/blobs").resolve(id).toFile();
+        Object blob = loader.loadClass("gitlet.Blob")
+            .getConstructor(String.class, byte[].class, File.class, File.class)
+            .newInstance(id, data, file(name), saved);
+        Files.write(saved.toPath(), serialize(blob));
+        return id;
+    }
+
+    /** Stores a commit as the first version did, returning its id. */
+    private String writeCommit(String message, Date date, Map<String, String> files,
+                               List<String> parents) throws Exception {
+        String timeStamp = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH)
+            .format(date);
+        String id = Utils.sha1(message, timeStamp, files.toString(), parents.toString());
+        File saved = dir.resolve(".gitlet/objects/commits").resolve(id).toFile();
+        Object commit = loader.loadClass("gitlet.Commit")
+            .getConstructor(String.class, String.class, String.class, File.class,
+                            Map.class, List.class)
+            .newInstance(message, id, timeStamp, saved, new HashMap<>(files),
+                         new ArrayList<>(parents));
+        Files.write(saved.toPath(), serialize(commit));
+        return id;
+    }
+
+    /** Returns OBJ serialized. */
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(obj);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Runs gitlet with ARGS in the repository and returns its output. */
+    private String gitlet(String... args) throws Exception {
+        List<String> command = new ArrayList<>(List.of(
+            Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(dir.toFile())
+            .redirectErrorStream(true).start();
+        String out = new String(process.getInputStream().readAllBytes(),
+            StandardCharsets.UTF_8);
+        process.waitFor();
+        return out;
+    }
+}
@@ -0,0 +1,142 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Runs gitlet processes side by side in one repository, and checks that
+ *  those that only read it see it whole and leave it unchanged (see
+ *  {@link RepositoryLock}).
+ *
+ *  @author
+ */
+public class LockTest {
+
+    private static final int COMMITS = 15;
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("gitlet-lock").toRealPath();
+        assertEquals("", gitlet("init"));
+        Files.writeString(dir.resolve("wug.txt"), "This is a wug.\n");
+        assertEquals("", gitlet("add", "wug.txt"));
+        assertEquals("", gitlet("commit", "wug 0"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void writerAndReadersTest() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            Future<?> writer = pool.submit(() -> {
+                try {
+                    for (int k = 1; k <= COMMITS; k += 1) {
+                        Files.writeString(dir.resolve("wug.txt"), "This is wug " + k + ".\n");
+                        assertEquals("", gitlet("add", "wug.txt"));
+                        assertEquals("", gitlet("commit", "wug " + k));
+                    }
+                } finally {
+                    writing.set(false);
+                }
+                return null;
+            });
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (String[] command : List.of(new String[] {"log"},
+                                            new String[] {"find", "wug 0"})) {
+                readers.add(pool.submit(() -> {
+                    int runs = 0;
+                    while (writing.get()) {
+                        String out = gitlet(command);
+                        if (command[0].equals("log")) {
+                            assertTrue(out, out.startsWith("===\ncommit ")
+                                       && out.endsWith("\ninitial commit\n\n"));
+                        } else {
+                            assertTrue(out, out.matches("[0-9a-f]{40}\n"));
+                        }
+                        runs += 1;
+                    }
+                    return runs;
+                }));
+            }
+            writer.get();
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get() > 0);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        String log = gitlet("log");
+        for (int k = 0; k <= COMMITS; k += 1) {
+            assertTrue(log.contains("\nwug " + k + "\n"));
+        }
+        assertEquals(1, gitlet("find", "wug " + COMMITS).split("\n").length);
+    }
+
+    @Test
+    public void readersWriteNothingTest() throws Exception {
+        Path wug = dir.resolve("wug.txt");
+        Files.setLastModifiedTime(wug, FileTime.fromMillis(Files.getLastModifiedTime(wug)
+            .toMillis() + 10_000));
+        Map<Path, String> before = snapshot();
+        assertTrue(gitlet("status").contains("=== Modifications Not Staged For Commit ===\n\n"));
+        assertEquals("", gitlet("diff"));
+        assertTrue(gitlet("log").contains("\nwug 0\n"));
+        assertEquals(1, gitlet("find", "wug 0").split("\n").length);
+        assertEquals(before, snapshot());
+    }
+
+    /** Returns the SHA-1 hash of every file in .gitlet, but for the lock
+     *  itself, by path. */
+    private Map<Path, String> snapshot() throws IOException {
+        Map<Path, String> result = new TreeMap<>();
+        try (var paths = Files.walk(dir.resolve(".gitlet"))) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(path) && !path.endsWith("lock")) {
+                    result.put(path, Utils.sha1((Object) Files.readAllBytes(path)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Runs gitlet with ARGS in the repository and returns its output. */
+    private String gitlet(String... args) throws Exception {
+        List<String> command = new ArrayList<>(List.of(
+            Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(dir.toFile())
+            .redirectErrorStream(true).start();
+        String out = new String(process.getInputStream().readAllBytes(),
+            StandardCharsets.UTF_8);
+        process.waitFor();
+        return out;
+    }
+}
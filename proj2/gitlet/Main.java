@@ -1,5 +1,11 @@
 package gitlet;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author
  */
@@ -9,10 +15,33 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } finally {
+            Instrumentation.report(args.length == 0 ? "" : args[0]);
+        }
+    }
+
+    /** Runs the command given by ARGS, holding the {@link RepositoryLock}
+     *  it needs, and then, if it changed the repository, any step of
+     *  garbage collection due (see {@link GarbageCollector#auto}).  Errors
+     *  are reported by throwing a GitletException whose message is to be
+     *  printed. */
+    static void run(String[] args) {
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw new GitletException("Please enter a command.");
+        }
+        try (RepositoryLock lock = RepositoryLock.acquire(args[0])) {
+            dispatch(args);
+            if (lock != null && lock.isExclusive() && !args[0].equals("gc")) {
+                GarbageCollector.auto();
+            }
         }
+    }
+
+    private static void dispatch(String[] args) {
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
@@ -34,26 +63,55 @@ public class Main {
                 Repository.checkIfInitialised();
                 Repository.rm(args[1]);
                 break;
-            case "log":
-                checkArgs(args.length, 1);
+            case "log": {
+                // java gitlet.Main log [options] [-- [path]]
+                int paths = Arrays.asList(args).indexOf("--");
+                if (paths >= 0 && paths != args.length - 2) {
+                    throw new GitletException("Incorrect operands.");
+                }
+                long[] options = logOptions(paths < 0 ? args : Arrays.copyOf(args, paths));
                 Repository.checkIfInitialised();
-                Repository.log();
+                if (paths < 0) {
+                    Repository.log(options[0], options[1]);
+                } else {
+                    Repository.log(options[0], options[1], args[paths + 1]);
+                }
                 break;
-            case "global-log":
-                checkArgs(args.length, 1);
+            }
+            case "global-log": {
+                long[] options = logOptions(args);
                 Repository.checkIfInitialised();
-                Repository.globalLog();
+                Repository.globalLog(options[0], options[1]);
                 break;
+            }
             case "find":
-                checkArgs(args.length, 2);
-                Repository.checkIfInitialised();
-                Repository.find(args[1]);
+                if (args.length == 2) {
+                    Repository.checkIfInitialised();
+                    Repository.find(args[1]);
+                } else if (args.length == 3 && args[1].equals("--words")) {
+                    Repository.checkIfInitialised();
+                    Repository.findWords(args[2]);
+                } else if (args.length == 3 && args[1].equals("--regex")) {
+                    Repository.checkIfInitialised();
+                    Repository.findPattern(args[2]);
+                } else {
+                    throw new GitletException("Incorrect operands.");
+                }
                 break;
             case "status":
                 checkArgs(args.length, 1);
                 Repository.checkIfInitialised();
                 Repository.status();
                 break;
+            case "diff":
+                // java gitlet.Main diff [commit id [commit id]]
+                if (args.length > 3) {
+                    throw new GitletException("Incorrect operands.");
+                }
+                Repository.checkIfInitialised();
+                Repository.diff(args.length > 1 ? args[1] : null,
+                        args.length > 2 ? args[2] : null);
+                break;
             case "checkout":
                 if (args.length == 2) {
                     // java gitlet.Main checkout [branch name]
@@ -67,8 +125,7 @@ public class Main {
                     checkEqual(args[2], "--");
                     Repository.checkout(args[1], args[3]);
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw new GitletException("Incorrect operands.");
                 }
                 break;
             case "branch":
@@ -91,23 +148,107 @@ public class Main {
                 Repository.checkIfInitialised();
                 Repository.merge(args[1]);
                 break;
+            case "gc":
+                if (args.length == 1) {
+                    Repository.checkIfInitialised();
+                    Repository.gc();
+                } else if (args.length == 3 && args[1].equals("--budget")) {
+                    long budget;
+                    try {
+                        budget = Long.parseUnsignedLong(args[2]);
+                    } catch (NumberFormatException excp) {
+                        throw new GitletException("Incorrect operands.");
+                    }
+                    Repository.checkIfInitialised();
+                    Repository.gc(Math.min(budget, Integer.MAX_VALUE));
+                } else {
+                    throw new GitletException("Incorrect operands.");
+                }
+                break;
+            case "add-remote":
+                checkArgs(args.length, 3);
+                Repository.checkIfInitialised();
+                Remote.add(args[1], args[2]);
+                break;
+            case "rm-remote":
+                checkArgs(args.length, 2);
+                Repository.checkIfInitialised();
+                Remote.remove(args[1]);
+                break;
+            case "fetch":
+                checkArgs(args.length, 3);
+                Repository.checkIfInitialised();
+                Remote.fetch(args[1], args[2]);
+                break;
+            case "push":
+                checkArgs(args.length, 3);
+                Repository.checkIfInitialised();
+                Remote.push(args[1], args[2]);
+                break;
+            case "pull":
+                checkArgs(args.length, 3);
+                Repository.checkIfInitialised();
+                Remote.pull(args[1], args[2]);
+                break;
+            case "upload-pack":
+                // run by fetch in the remote repository
+                checkArgs(args.length, 2);
+                Repository.checkIfInitialised();
+                Remote.uploadPack(args[1]);
+                break;
+            case "receive-pack":
+                // run by push in the remote repository
+                checkArgs(args.length, 2);
+                Repository.checkIfInitialised();
+                Remote.receivePack(args[1]);
+                break;
+            case "daemon":
+                checkArgs(args.length, 1);
+                Repository.checkIfInitialised();
+                Daemon.serve();
+                break;
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw new GitletException("No command with that name exists.");
+        }
+    }
+
+    /** Returns the options of log or global-log in ARGS, as {the limit
+     *  given by -n COUNT, or -1 for none; the time given by --since DATE, in
+     *  seconds since the epoch, or Long.MIN_VALUE for none}.  DATE is
+     *  yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss, in local time. */
+    private static long[] logOptions(String[] args) {
+        long[] options = {-1, Long.MIN_VALUE};
+        for (int k = 1; k < args.length; k += 2) {
+            if (k + 1 == args.length) {
+                throw new GitletException("Incorrect operands.");
+            }
+            try {
+                if (args[k].equals("-n")) {
+                    options[0] = Long.parseUnsignedLong(args[k + 1]);
+                } else if (args[k].equals("--since")) {
+                    String date = args[k + 1];
+                    LocalDateTime time = date.contains("T") ? LocalDateTime.parse(date)
+                            : LocalDate.parse(date).atStartOfDay();
+                    options[1] = time.atZone(ZoneId.systemDefault()).toEpochSecond();
+                } else {
+                    throw new GitletException("Incorrect operands.");
+                }
+            } catch (NumberFormatException | DateTimeParseException excp) {
+                throw new GitletException("Incorrect operands.");
+            }
         }
+        return options;
     }
 
     private static void checkEqual(String actualStr, String expectedStr) {
         if (!actualStr.equals(expectedStr)) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw new GitletException("Incorrect operands.");
         }
     }
 
     private static void checkArgs(int actualLength, int expectedLength) {
         if (actualLength != expectedLength) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw new GitletException("Incorrect operands.");
         }
     }
 }
@@ -0,0 +1,361 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/** An index of commit messages, for find.
+ *
+ *  objects/info/messages holds the message of every commit, one record per
+ *  commit in the order they were made,
+ *
+ *      UID (20) | length (4) | message (UTF-8)
+ *
+ *  so that searching messages by pattern reads this file alone rather than
+ *  every commit.  objects/info/message-index maps hashes of whole messages
+ *  and of the words in them to the offsets of the records containing them.
+ *  After a 16-byte header (magic, version, length of the messages file
+ *  covered), it holds entries
+ *
+ *      key (8) | offset (8)
+ *
+ *  sorted by key, so the records with a given message or word are found by
+ *  binary search; since keys are hashes, each record found is checked.
+ *  Records appended since the index was written are scanned directly, and
+ *  merged into the index once MAX_LOG of them have built up.  Both files are
+ *  rebuilt from the object store if the messages file is missing.  A record
+ *  cut short by a crash while it was appended is ignored, and cut off
+ *  before the next one is appended.
+ *
+ *  @author
+ */
+class MessageIndex {
+
+    /** The messages of all commits, and the index into it. */
+    static final File MESSAGES_FILE = join(Repository.INFO_DIR, "messages");
+    static final File INDEX_FILE = join(Repository.INFO_DIR, "message-index");
+
+    /** Header of INDEX_FILE: "GMIX" and the format version. */
+    private static final int MAGIC = 0x474d4958, VERSION = 1;
+
+    private static final int HEADER_LENGTH = 16;
+
+    private static final int ENTRY_LENGTH = 16;
+
+    /** Most records of MESSAGES_FILE left out of INDEX_FILE. */
+    private static final int MAX_LOG = 256;
+
+    /** Kinds of key: a whole message, or one word of it. */
+    private static final byte MESSAGE = 'm', WORD = 'w';
+
+    /** Separators of the words of a message. */
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /** One record of MESSAGES_FILE. */
+    private static class Record {
+        final String id, message;
+
+        Record(String id, String message) {
+            this.id = id;
+            this.message = message;
+        }
+    }
+
+    /** Records the message of COMMIT, which has been stored. */
+    static void add(Commit commit) {
+        if (!MESSAGES_FILE.isFile()) {
+            rebuild();
+            return;
+        }
+        long covered = covered();
+        try (FileChannel out = FileChannel.open(MESSAGES_FILE.toPath(),
+                StandardOpenOption.WRITE)) {
+            out.truncate(end(covered));
+            out.write(ByteBuffer.wrap(record(commit.getId(), commit.getMessage())), out.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (countRecords(covered) >= MAX_LOG) {
+            List<long[]> entries = new ArrayList<>();
+            if (covered > 0) {
+                ByteBuffer index = map(INDEX_FILE);
+                for (int pos = HEADER_LENGTH; pos + ENTRY_LENGTH <= index.limit();
+                     pos += ENTRY_LENGTH) {
+                    entries.add(new long[] {index.getLong(pos), index.getLong(pos + 8)});
+                }
+            }
+            addEntries(covered, entries);
+            writeIndex(entries);
+        }
+    }
+
+    /** Returns the UIDs of the commits whose message is MESSAGE, in
+     *  lexicographic order. */
+    static List<String> find(String message) {
+        Set<String> result = new TreeSet<>();
+        for (Record r : lookup(key(MESSAGE, message))) {
+            if (r.message.equals(message)) {
+                result.add(r.id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the UIDs of the commits whose messages contain all the words
+     *  of WORDS, ignoring case, in lexicographic order. */
+    static List<String> findWords(String words) {
+        Set<String> wanted = words(words);
+        Set<String> result = new TreeSet<>();
+        if (wanted.isEmpty()) {
+            return new ArrayList<>();
+        }
+        for (Record r : lookup(key(WORD, wanted.iterator().next()))) {
+            if (words(r.message).containsAll(wanted)) {
+                result.add(r.id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the UIDs of the commits with a message in which PATTERN
+     *  is found, in lexicographic order. */
+    static List<String> grep(Pattern pattern) {
+        Set<String> result = new TreeSet<>();
+        ensureBuilt();
+        ByteBuffer messages = map(MESSAGES_FILE);
+        for (int pos = 0; whole(messages, pos); pos = next(messages, pos)) {
+            Record r = readRecord(messages, pos);
+            if (pattern.matcher(r.message).find()) {
+                result.add(r.id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Rewrites both files from the commits in the object store. */
+    static void rebuild() {
+        rebuild(id -> true);
+    }
+
+    /** Rewrites both files from the commits in the object store that KEEP
+     *  accepts. */
+    static void rebuild(Predicate<String> keep) {
+        if (!Repository.INFO_DIR.isDirectory() && !Repository.INFO_DIR.mkdirs()) {
+            throw new IllegalArgumentException("Failed to create directory");
+        }
+        try {
+            File temp = File.createTempFile("tmp_messages_", null, Repository.INFO_DIR);
+            try (OutputStream out = new FileOutputStream(temp)) {
+                for (String id : ObjectStore.list(ObjectStore.Type.COMMIT)) {
+                    if (keep.test(id)) {
+                        out.write(record(id, Commit.fromId(id).getMessage()));
+                    }
+                }
+            }
+            INDEX_FILE.delete();
+            Files.move(temp.toPath(), MESSAGES_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        List<long[]> entries = new ArrayList<>();
+        addEntries(0, entries);
+        writeIndex(entries);
+    }
+
+    private static void ensureBuilt() {
+        if (!MESSAGES_FILE.isFile()) {
+            RepositoryLock.upgrade();
+            rebuild();
+        }
+    }
+
+    /** Returns the records whose keys include KEY: those found through
+     *  INDEX_FILE and those it does not cover yet. */
+    private static List<Record> lookup(long key) {
+        ensureBuilt();
+        ByteBuffer messages = map(MESSAGES_FILE);
+        List<Record> result = new ArrayList<>();
+        long covered = covered();
+        if (covered > 0) {
+            ByteBuffer index = map(INDEX_FILE);
+            int count = (index.limit() - HEADER_LENGTH) / ENTRY_LENGTH;
+            int lo = 0, hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (index.getLong(HEADER_LENGTH + mid * ENTRY_LENGTH) < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int k = lo; k < count; k += 1) {
+                int pos = HEADER_LENGTH + k * ENTRY_LENGTH;
+                if (index.getLong(pos) != key) {
+                    break;
+                }
+                result.add(readRecord(messages, (int) index.getLong(pos + 8)));
+            }
+        }
+        for (int pos = (int) covered; whole(messages, pos); pos = next(messages, pos)) {
+            Record r = readRecord(messages, pos);
+            if (keys(r.message).contains(key)) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the length of MESSAGES_FILE covered by INDEX_FILE, which is
+     *  0 if there is no valid index. */
+    private static long covered() {
+        if (!INDEX_FILE.isFile() || INDEX_FILE.length() < HEADER_LENGTH) {
+            return 0;
+        }
+        ByteBuffer index = map(INDEX_FILE);
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION
+                || index.getLong(8) > MESSAGES_FILE.length()) {
+            return 0;
+        }
+        return index.getLong(8);
+    }
+
+    /** Returns the number of records of MESSAGES_FILE from offset START. */
+    private static int countRecords(long start) {
+        ByteBuffer messages = map(MESSAGES_FILE);
+        int count = 0;
+        for (int pos = (int) start; whole(messages, pos); pos = next(messages, pos)) {
+            count += 1;
+        }
+        return count;
+    }
+
+    /** Adds to ENTRIES the entries for the records of MESSAGES_FILE from
+     *  offset START. */
+    private static void addEntries(long start, List<long[]> entries) {
+        ByteBuffer messages = map(MESSAGES_FILE);
+        for (int pos = (int) start; whole(messages, pos); pos = next(messages, pos)) {
+            for (long key : keys(readRecord(messages, pos).message)) {
+                entries.add(new long[] {key, pos});
+            }
+        }
+    }
+
+    /** Writes ENTRIES, sorted, as the index of all of MESSAGES_FILE. */
+    private static void writeIndex(List<long[]> entries) {
+        entries.sort(Comparator.<long[]>comparingLong(e -> e[0]).thenComparingLong(e -> e[1]));
+        ByteBuffer contents = ByteBuffer.allocate(HEADER_LENGTH + entries.size() * ENTRY_LENGTH);
+        contents.putInt(MAGIC).putInt(VERSION).putLong(MESSAGES_FILE.length());
+        for (long[] e : entries) {
+            contents.putLong(e[0]).putLong(e[1]);
+        }
+        try {
+            File temp = File.createTempFile("tmp_index_", null, Repository.INFO_DIR);
+            writeContents(temp, contents.array());
+            Files.move(temp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static byte[] record(String id, String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(UID_LENGTH / 2 + 4 + text.length)
+                .put(hexToBytes(id)).putInt(text.length).put(text).array();
+    }
+
+    private static Record readRecord(ByteBuffer messages, int pos) {
+        byte[] id = new byte[UID_LENGTH / 2];
+        messages.get(pos, id);
+        byte[] text = new byte[messages.getInt(pos + id.length)];
+        messages.get(pos + id.length + 4, text);
+        return new Record(bytesToHex(id), new String(text, StandardCharsets.UTF_8));
+    }
+
+    /** Returns the offset of the record after the one at POS in MESSAGES. */
+    private static int next(ByteBuffer messages, int pos) {
+        int end = pos + UID_LENGTH / 2 + 4;
+        return end + messages.getInt(end - 4);
+    }
+
+    /** Returns true iff a whole record starts at POS in MESSAGES, rather
+     *  than its end or a record cut short. */
+    private static boolean whole(ByteBuffer messages, int pos) {
+        int end = pos + UID_LENGTH / 2 + 4;
+        if (end > messages.limit()) {
+            return false;
+        }
+        int length = messages.getInt(end - 4);
+        return length >= 0 && length <= messages.limit() - end;
+    }
+
+    /** Returns the offset of MESSAGES_FILE just past its last whole record,
+     *  starting from offset START, that of a record. */
+    private static long end(long start) {
+        ByteBuffer messages = map(MESSAGES_FILE);
+        int pos = (int) start;
+        while (whole(messages, pos)) {
+            pos = next(messages, pos);
+        }
+        return pos;
+    }
+
+    /** Returns the keys of MESSAGE: that of the whole message, then those
+     *  of its words. */
+    private static Set<Long> keys(String message) {
+        Set<Long> result = new LinkedHashSet<>();
+        result.add(key(MESSAGE, message));
+        for (String word : words(message)) {
+            result.add(key(WORD, word));
+        }
+        return result;
+    }
+
+    /** Returns the distinct words of TEXT, in lower case. */
+    private static Set<String> words(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String word : NON_WORD.split(text.toLowerCase(Locale.ROOT))) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the 64-bit FNV-1a hash of KIND followed by TEXT in UTF-8. */
+    private static long key(byte kind, String text) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ kind) * 0x100000001b3L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/** A cache of decoded objects (commits, trees, object lengths) shared by
+ *  everything in one gitlet process, so that each object is read from the
+ *  store and decoded at most once per command while it stays cached.
+ *
+ *  Objects are immutable once stored, so entries never go stale.  Each entry
+ *  has an estimated size in bytes, and the least recently used entries are
+ *  evicted once the total exceeds core.objectCacheSize (see {@link Config}).
+ *  Hits, misses and evictions are counted; setting the environment variable
+ *  GITLET_CACHE_STATS makes gitlet print them to standard error on exit.
+ *
+ *  @author
+ */
+class ObjectCache {
+
+    /** Default limit on the total size of cached entries. */
+    private static final int DEFAULT_SIZE = 32 << 20;
+
+    /** A cached value and its estimated size. */
+    private static class Entry {
+        final Object value;
+        final long size;
+
+        Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /** Entries by key, least recently used first. */
+    private static final LinkedHashMap<String, Entry> ENTRIES =
+            new LinkedHashMap<>(256, 0.75f, true);
+
+    /** The loads under way, by key, each completed with the value loaded. */
+    private static final Map<String, CompletableFuture<Object>> LOADING = new HashMap<>();
+
+    /** Total size of ENTRIES, and the most it may be; -1 until read. */
+    private static long size;
+    private static long maxSize = -1;
+
+    private static long hits, misses, evictions;
+
+    static {
+        if (System.getenv("GITLET_CACHE_STATS") != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                    System.err.println(stats())));
+        }
+    }
+
+    /** Returns the value cached under KEY.  If there is none, it is made by
+     *  LOADER and cached with the size that SIZEOF gives for it.  LOADER
+     *  runs without holding the cache's lock, so that threads may load
+     *  different objects at once; a thread that asks for a KEY another is
+     *  loading waits for that load instead of repeating it. */
+    static <T> T get(String key, Supplier<T> loader, ToLongFunction<T> sizeOf) {
+        CompletableFuture<Object> loading;
+        synchronized (ObjectCache.class) {
+            Entry entry = ENTRIES.get(key);
+            if (entry != null) {
+                hits += 1;
+                @SuppressWarnings("unchecked")
+                T value = (T) entry.value;
+                return value;
+            }
+            loading = LOADING.get(key);
+            if (loading == null) {
+                misses += 1;
+                LOADING.put(key, new CompletableFuture<>());
+            } else {
+                hits += 1;
+            }
+        }
+        if (loading != null) {
+            try {
+                @SuppressWarnings("unchecked")
+                T value = (T) loading.join();
+                return value;
+            } catch (CompletionException excp) {
+                if (excp.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) excp.getCause();
+                }
+                throw excp;
+            }
+        }
+
+        T value;
+        try {
+            value = loader.get();
+        } catch (RuntimeException | Error excp) {
+            synchronized (ObjectCache.class) {
+                LOADING.remove(key).completeExceptionally(excp);
+            }
+            throw excp;
+        }
+        synchronized (ObjectCache.class) {
+            if (maxSize < 0) {
+                maxSize = Config.getInt("core.objectCacheSize", DEFAULT_SIZE,
+                        0, Integer.MAX_VALUE);
+            }
+            long valueSize = sizeOf.applyAsLong(value);
+            if (valueSize <= maxSize) {
+                ENTRIES.put(key, new Entry(value, valueSize));
+                size += valueSize;
+                evict();
+            }
+            LOADING.remove(key).complete(value);
+        }
+        return value;
+    }
+
+    private static void evict() {
+        Iterator<Map.Entry<String, Entry>> iter = ENTRIES.entrySet().iterator();
+        while (size > maxSize && iter.hasNext()) {
+            Map.Entry<String, Entry> eldest = iter.next();
+            size -= eldest.getValue().size;
+            iter.remove();
+            evictions += 1;
+        }
+    }
+
+    static synchronized long hits() {
+        return hits;
+    }
+
+    static synchronized long misses() {
+        return misses;
+    }
+
+    static synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Returns a one-line summary of the counters and current size. */
+    static synchronized String stats() {
+        return String.format("object cache: %d hits, %d misses, %d evictions, "
+                + "%d entries, %d bytes", hits, misses, evictions, ENTRIES.size(), size);
+    }
+}
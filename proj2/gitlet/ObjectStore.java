@@ -0,0 +1,808 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** The gitlet object database.
+ *
+ *  New objects are written loose, one file per object under objects/commits,
+ *  objects/trees and objects/blobs.  A loose file is, as in Git, the
+ *  zlib-compressed form of a header "TYPE LENGTH\0" followed by the
+ *  object's contents; the compression level comes from core.compression in
+ *  {@link Config}.  Files written uncompressed by earlier versions are still
+ *  read.
+ *
+ *  {@link #gc} later gathers loose objects into pack files under
+ *  objects/pack (see {@link PackFile}).  Reads look in the packs first and
+ *  fall back to the loose files, so objects stay readable in either form.
+ *  In packs, each version of a file is stored as a delta against the version
+ *  that replaced it, where that is small enough, with chains of deltas no
+ *  longer than pack.depth (50 by default; 0 turns deltas off).
+ *
+ *  Blobs are streamed in and out in BUFFER_SIZE chunks, so adding or
+ *  checking out a file takes constant memory however large it is.  Objects
+ *  larger than BIG_OBJECT_LENGTH are never packed, since reading a packed
+ *  object materializes it in memory.
+ *
+ *  @author
+ */
+class ObjectStore {
+
+    /** The kinds of object in the store. */
+    enum Type {
+        COMMIT(1, "commit", Repository.COMMITS_DIR),
+        BLOB(2, "blob", Repository.BLOBS_DIR),
+        TREE(3, "tree", Repository.TREES_DIR);
+
+        /** Tag identifying this type inside pack files. */
+        final byte code;
+
+        /** Name of this type in loose object headers. */
+        final String name;
+
+        /** Directory holding loose objects of this type. */
+        final File dir;
+
+        Type(int code, String name, File dir) {
+            this.code = (byte) code;
+            this.name = name;
+            this.dir = dir;
+        }
+    }
+
+    /** Size of the chunks in which blobs are streamed. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Objects longer than this stay loose. */
+    static final long BIG_OBJECT_LENGTH = 1 << 28;
+
+    /** Default and greatest limit on the length of delta chains in packs,
+     *  set by pack.depth. */
+    private static final int DEFAULT_DELTA_DEPTH = 50, MAX_DELTA_DEPTH = 1000;
+
+    /** Fewest loose objects {@link #packLoose} packs at a time, so that short
+     *  steps of garbage collection do not leave many tiny packs. */
+    private static final int MIN_PACK_BATCH = 256;
+
+    /** Directory holding pack files. */
+    static final File PACK_DIR = join(Repository.OBJECTS_DIR, "pack");
+
+    /** Present once no commit stored with Java serialization is left. */
+    static final File NO_LEGACY_FILE = join(Repository.INFO_DIR, "no-legacy-commits");
+
+    /** The packs of this repository, loaded on first use, and the fileStamp
+     *  of PACK_DIR when they were listed.  Packs may be read from several
+     *  threads at once. */
+    private static List<PackFile> packs;
+    private static long packsStamp;
+
+    private static synchronized List<PackFile> packs() {
+        if (packs == null || packsStamp != fileStamp(PACK_DIR)) {
+            packsStamp = fileStamp(PACK_DIR);
+            packs = new ArrayList<>();
+            List<String> names = plainFilenamesIn(PACK_DIR);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith("pack-") && name.endsWith(".pack")) {
+                        packs.add(new PackFile(join(PACK_DIR, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Returns true iff the store holds object ID of type TYPE. */
+    static boolean contains(Type type, String id) {
+        for (PackFile pack : packs()) {
+            if (pack.contains(type.code, id)) {
+                return true;
+            }
+        }
+        return join(type.dir, id).isFile();
+    }
+
+    /** Returns the zlib compression level for new objects. */
+    static int compressionLevel() {
+        return Config.getInt("core.compression", Deflater.DEFAULT_COMPRESSION, -1, 9);
+    }
+
+    /** Returns a stream that compresses into OUT at compressionLevel(). */
+    private static OutputStream deflating(OutputStream out) {
+        Deflater deflater = new Deflater(compressionLevel());
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /** Returns a stream over the uncompressed contents of loose object FILE,
+     *  of type TYPE, header included.  Compressed files are told apart from
+     *  uncompressed ones by their first byte: a zlib stream always starts
+     *  with a byte whose low four bits are 8, which no type name does.  The
+     *  headerless files of the oldest versions are read through
+     *  {@link Legacy} and given a header. */
+    private static InputStream openLoose(Type type, File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        if (Legacy.isSerialized(in)) {
+            byte[] data;
+            try (in) {
+                data = in.readAllBytes();
+            }
+            if (type == Type.BLOB) {
+                data = Legacy.readBlobContents(data);
+            }
+            return new SequenceInputStream(new ByteArrayInputStream(header(type, data.length)),
+                    new ByteArrayInputStream(data));
+        }
+        in.mark(1);
+        int first = in.read();
+        in.reset();
+        if (first < 0 || (first & 0xf) != 8) {
+            return in;
+        }
+        return new BufferedInputStream(new InflaterInputStream(in), BUFFER_SIZE);
+    }
+
+    /** Returns the header of a loose object of type TYPE and LENGTH bytes. */
+    private static byte[] header(Type type, long length) {
+        return (type.name + " " + length + "\0").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Reads the header of loose object FILE of type TYPE from IN, returning
+     *  the length it records. */
+    private static long readHeader(InputStream in, Type type, File file)
+        throws IOException {
+        StringBuilder header = new StringBuilder();
+        for (int c = in.read(); c != 0; c = in.read()) {
+            if (c < 0 || header.length() > UID_LENGTH) {
+                throw error("Corrupt object %s.", file.getName());
+            }
+            header.append((char) c);
+        }
+        String prefix = type.name + " ";
+        if (!header.toString().startsWith(prefix)) {
+            throw error("Corrupt object %s.", file.getName());
+        }
+        return Long.parseLong(header.substring(prefix.length()));
+    }
+
+    /** Stores DATA as object ID of type TYPE, unless it is already there.
+     *  It is written to a temporary file first and then renamed, so that a
+     *  crash never leaves a partial object under its id. */
+    static void write(Type type, String id, byte[] data) {
+        long start = Instrumentation.start();
+        File tempFile = null;
+        try {
+            if (!contains(type, id)) {
+                RepositoryLock.upgrade();
+                if (!type.dir.isDirectory() && !type.dir.mkdirs()) {
+                    throw new IllegalArgumentException("Failed to create directory");
+                }
+                tempFile = File.createTempFile("tmp_object_", null, type.dir);
+                try (OutputStream out = deflating(new FileOutputStream(tempFile))) {
+                    out.write(header(type, data.length));
+                    out.write(data);
+                }
+                Files.move(tempFile.toPath(), join(type.dir, id).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                Transaction.track(join(type.dir, id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+            Instrumentation.end("ObjectStore.write", start, data.length);
+        }
+    }
+
+    /** Stores the contents of FILE as a blob, unless it is already there,
+     *  and returns its id.  The file is hashed and copied in one pass. */
+    static String writeBlob(File file) {
+        long start = Instrumentation.start();
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile("tmp_blob_", null, Type.BLOB.dir);
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long length = file.length();
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = deflating(new FileOutputStream(tempFile))) {
+                out.write(header(Type.BLOB, length));
+                long copied = copy(in, new DigestOutputStream(out, md));
+                if (copied != length) {
+                    throw error("File %s changed while being added.", file.getName());
+                }
+            }
+            String id = bytesToHex(md.digest());
+            if (!contains(Type.BLOB, id)) {
+                Files.move(tempFile.toPath(), join(Type.BLOB.dir, id).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                Transaction.track(join(Type.BLOB.dir, id));
+            }
+            return id;
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+            Instrumentation.end("ObjectStore.writeBlob", start, file.length());
+        }
+    }
+
+    /** Returns the SHA-1 id that the contents of FILE would have as a blob,
+     *  without storing it. */
+    static String hashBlob(File file) {
+        long start = Instrumentation.start();
+        long length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            length = copy(in, new DigestOutputStream(OutputStream.nullOutputStream(), md));
+            return bytesToHex(md.digest());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Instrumentation.end("ObjectStore.hashBlob", start, length);
+        }
+    }
+
+    /** Copies IN to OUT in BUFFER_SIZE chunks, returning the number of bytes
+     *  copied.  Flushes, but does not close, OUT. */
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+            total += n;
+        }
+        out.flush();
+        return total;
+    }
+
+    /** Returns the contents of object ID of type TYPE.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    static byte[] read(Type type, String id) {
+        long start = Instrumentation.start();
+        byte[] data = null;
+        try {
+            data = readData(type, id);
+            return data;
+        } finally {
+            Instrumentation.end("ObjectStore.read", start, data == null ? 0 : data.length);
+        }
+    }
+
+    private static byte[] readData(Type type, String id) {
+        for (PackFile pack : packs()) {
+            byte[] data = pack.read(type.code, id);
+            if (data != null) {
+                return data;
+            }
+        }
+        File file = join(type.dir, id);
+        try (InputStream in = openLoose(type, file)) {
+            long length = readHeader(in, type, file);
+            if (length > Integer.MAX_VALUE - 8) {
+                throw error("Object %s is too large to read into memory.", id);
+            }
+            byte[] data = in.readNBytes((int) length);
+            if (data.length != length) {
+                throw error("Corrupt object %s.", id);
+            }
+            return data;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the length of the contents of object ID of type TYPE. */
+    static long length(Type type, String id) {
+        return ObjectCache.get("length " + type.name + " " + id,
+            () -> readLength(type, id), n -> 64);
+    }
+
+    private static long readLength(Type type, String id) {
+        for (PackFile pack : packs()) {
+            long length = pack.length(type.code, id);
+            if (length >= 0) {
+                return length;
+            }
+        }
+        File file = join(type.dir, id);
+        try (InputStream in = openLoose(type, file)) {
+            return readHeader(in, type, file);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the contents of object ID of type TYPE to FILE, creating or
+     *  overwriting it as needed. */
+    static void copyTo(Type type, String id, File file) {
+        long start = Instrumentation.start();
+        try {
+            copyData(type, id, file);
+        } finally {
+            Instrumentation.end("ObjectStore.copyTo", start, file.length());
+        }
+    }
+
+    private static void copyData(Type type, String id, File file) {
+        for (PackFile pack : packs()) {
+            byte[] data = pack.read(type.code, id);
+            if (data != null) {
+                writeContents(file, data);
+                return;
+            }
+        }
+        File source = join(type.dir, id);
+        try (InputStream in = openLoose(type, source);
+             OutputStream out = new FileOutputStream(file)) {
+            long length = readHeader(in, type, source);
+            if (copy(in, out) != length) {
+                throw error("Corrupt object %s.", id);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the UIDs of all objects of type TYPE, loose or packed, in
+     *  lexicographic order. */
+    static List<String> list(Type type) {
+        TreeSet<String> ids = new TreeSet<>();
+        List<String> names = plainFilenamesIn(type.dir);
+        for (String name : names == null ? List.<String>of() : names) {
+            if (name.length() == UID_LENGTH) {
+                ids.add(name);
+            }
+        }
+        for (PackFile pack : packs()) {
+            ids.addAll(pack.ids(type.code));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Returns a delta base for each blob that has a natural one: the blob
+     *  that replaced it at the same path in some child commit among COMMITS.
+     *  Deltas thus run from newer versions of a file back to older ones, so
+     *  the latest versions, which are read most, are stored whole. */
+    private static Map<String, String> deltaBases(List<String> commits) {
+        Map<String, String> bases = new HashMap<>();
+        for (String id : commits) {
+            Commit commit = Commit.fromId(id);
+            for (String parent : commit.getParents()) {
+                Map<String, String[]> changes = new HashMap<>();
+                Tree.diff(Commit.fromId(parent).getTreeId(), commit.getTreeId(), "", changes);
+                for (String[] change : changes.values()) {
+                    if (change[0] != null && change[1] != null) {
+                        bases.putIfAbsent(change[0], change[1]);
+                    }
+                }
+            }
+        }
+        return bases;
+    }
+
+    /** Removes entries from BASES, which maps blobs to their delta bases,
+     *  until no chain of deltas is longer than MAXDEPTH and none is
+     *  circular, and returns the depth of each blob in BASES: the number
+     *  of deltas to apply to get it. */
+    private static Map<String, Integer> limitDepths(Map<String, String> bases, int maxDepth) {
+        Map<String, Integer> depths = new HashMap<>();
+        for (String id : new ArrayList<>(bases.keySet())) {
+            Deque<String> chain = new ArrayDeque<>();
+            Set<String> onChain = new HashSet<>();
+            String next = id;
+            while (next != null && !depths.containsKey(next) && onChain.add(next)) {
+                chain.push(next);
+                next = bases.get(next);
+            }
+            int depth = -1;
+            if (next != null && depths.containsKey(next)) {
+                depth = depths.get(next);
+            } else if (next != null) {
+                bases.remove(chain.peek());
+            }
+            while (!chain.isEmpty()) {
+                String blob = chain.pop();
+                depth = bases.containsKey(blob) ? depth + 1 : 0;
+                if (depth > maxDepth) {
+                    bases.remove(blob);
+                    depth = 0;
+                }
+                depths.put(blob, depth);
+            }
+        }
+        return depths;
+    }
+
+    /** Writes the objects with UIDs in OBJECTS, by type, to OUT as one
+     *  pack, whole rather than as deltas, since their bases may not be among
+     *  them.  Commits stored by earlier versions are sent converted. */
+    static void writePack(Map<Type, ? extends Collection<String>> objects, OutputStream out) {
+        File dir = null;
+        File pack = null;
+        try {
+            dir = Files.createTempDirectory("gitlet-pack").toFile();
+            PackFile.Writer writer = new PackFile.Writer(dir, compressionLevel());
+            for (Map.Entry<Type, ? extends Collection<String>> entry : objects.entrySet()) {
+                Type type = entry.getKey();
+                for (String id : entry.getValue()) {
+                    byte[] data = read(type, id);
+                    if (type == Type.COMMIT && Legacy.isSerialized(data)) {
+                        data = Commit.fromId(id).encode();
+                    }
+                    if (!writer.fits(data.length)) {
+                        throw new GitletException("Too much to send in one pack.");
+                    }
+                    writer.add(type.code, id, data);
+                }
+            }
+            pack = writer.finish();
+            Files.copy(pack.toPath(), out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (pack != null) {
+                PackFile.indexFileFor(pack).delete();
+                pack.delete();
+            }
+            if (dir != null) {
+                File[] rest = dir.listFiles();
+                for (File file : rest == null ? new File[0] : rest) {
+                    file.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    /** Stores the pack read from IN, as written by {@link #writePack}, and
+     *  returns the UIDs of the commits in it that the store lacked. */
+    static List<String> readPack(InputStream in) {
+        return readPack(in, pack -> true);
+    }
+
+    /** Reads the pack, as written by {@link #writePack}, from IN into a
+     *  temporary directory and, if ACCEPT holds for it (null if it holds no
+     *  objects), stores it and returns the UIDs of the commits in it that
+     *  the store lacked.  Otherwise deletes it and returns null, leaving the
+     *  store as it was. */
+    static List<String> readPack(InputStream in, Predicate<PackFile> accept) {
+        if (!PACK_DIR.isDirectory() && !PACK_DIR.mkdirs()) {
+            throw new IllegalArgumentException("Failed to create directory");
+        }
+        List<PackFile> oldPacks = packs();
+        File dir = null;
+        try {
+            dir = Files.createTempDirectory(PACK_DIR.toPath(), "tmp_receive_").toFile();
+            File received = PackFile.receive(in, dir);
+            PackFile pack = received == null ? null : new PackFile(received);
+            if (!accept.test(pack)) {
+                return null;
+            }
+            List<String> result = new ArrayList<>();
+            if (pack == null) {
+                return result;
+            }
+            File packFile = join(PACK_DIR, received.getName());
+            File indexFile = PackFile.indexFileFor(packFile);
+            Files.move(PackFile.indexFileFor(received).toPath(), indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(received.toPath(), packFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Transaction.track(packFile);
+            Transaction.track(indexFile);
+            for (String id : pack.ids(Type.COMMIT.code)) {
+                boolean known = join(Type.COMMIT.dir, id).isFile();
+                for (PackFile old : oldPacks) {
+                    known = known || old.contains(Type.COMMIT.code, id);
+                }
+                if (!known) {
+                    result.add(id);
+                }
+            }
+            synchronized (ObjectStore.class) {
+                packs = null;
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (dir != null) {
+                File[] rest = dir.listFiles();
+                for (File file : rest == null ? new File[0] : rest) {
+                    file.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    /** Returns true iff some loose commit was stored with Java
+     *  serialization by an earlier version (see {@link Legacy}).  Since no
+     *  such commit is stored any more, the first call that finds none leaves
+     *  NO_LEGACY_FILE, as does {@link #gc} once it has converted them all,
+     *  and later calls read nothing. */
+    static boolean hasLegacyCommits() {
+        if (NO_LEGACY_FILE.isFile()) {
+            return false;
+        }
+        List<String> names = plainFilenamesIn(Type.COMMIT.dir);
+        for (String id : names == null ? List.<String>of() : names) {
+            if (id.length() == UID_LENGTH && Legacy.isSerialized(read(Type.COMMIT, id))) {
+                return true;
+            }
+        }
+        markNoLegacyCommits();
+        return false;
+    }
+
+    /** Records in NO_LEGACY_FILE that no legacy commit is left. */
+    static void markNoLegacyCommits() {
+        if (!Repository.INFO_DIR.isDirectory() && !Repository.INFO_DIR.mkdirs()) {
+            throw new IllegalArgumentException("Failed to create directory");
+        }
+        writeContents(NO_LEGACY_FILE, "");
+    }
+
+    /** Gathers the objects for which LIVE holds, loose or packed, into as
+     *  few new packs as possible, then removes the loose files and packs
+     *  they came from, and with them every object for which LIVE fails.
+     *  Objects that earlier versions stored with Java serialization are
+     *  converted on the way (see {@link Legacy}): the trees of legacy
+     *  commits are written first, so that they are packed too. */
+    static void gc(BiPredicate<Type, String> live) {
+        Set<String> legacyCommits = new HashSet<>();
+        for (String id : NO_LEGACY_FILE.isFile() ? List.<String>of() : list(Type.COMMIT)) {
+            if (Legacy.isSerialized(read(Type.COMMIT, id))) {
+                Commit.fromId(id);
+                legacyCommits.add(id);
+            }
+        }
+        List<PackFile> oldPacks = packs();
+        List<File> looseFiles = new ArrayList<>();
+        Map<Type, List<String>> liveIds = new EnumMap<>(Type.class);
+        boolean dead = false;
+        for (Type type : Type.values()) {
+            List<String> names = plainFilenamesIn(type.dir);
+            for (String id : names == null ? List.<String>of() : names) {
+                if (id.length() == UID_LENGTH && (length(type, id) <= BIG_OBJECT_LENGTH
+                        || !live.test(type, id))) {
+                    looseFiles.add(join(type.dir, id));
+                }
+            }
+            List<String> ids = list(type);
+            liveIds.put(type, ids);
+            dead = ids.removeIf(id -> !live.test(type, id)) || dead;
+        }
+        if (looseFiles.isEmpty() && oldPacks.size() <= 1 && legacyCommits.isEmpty() && !dead) {
+            markNoLegacyCommits();
+            return;
+        }
+        if (!PACK_DIR.isDirectory() && !PACK_DIR.mkdir()) {
+            throw new IllegalArgumentException("Failed to create directory");
+        }
+
+        Map<String, String> bases = deltaBases(liveIds.get(Type.COMMIT));
+        Map<String, Integer> depths = limitDepths(bases, Config.getInt("pack.depth",
+                DEFAULT_DELTA_DEPTH, 0, MAX_DELTA_DEPTH));
+        List<File> newPacks = new ArrayList<>();
+        PackFile.Writer writer = new PackFile.Writer(PACK_DIR, compressionLevel());
+        for (Type type : Type.values()) {
+            List<String> ids = liveIds.get(type);
+            if (type == Type.BLOB) {
+                ids.sort(Comparator.comparing(id -> depths.getOrDefault(id, 0)));
+            }
+            for (String id : ids) {
+                if (length(type, id) > BIG_OBJECT_LENGTH) {
+                    continue;
+                }
+                byte[] data = type == Type.COMMIT && legacyCommits.contains(id)
+                        ? Commit.fromId(id).encode() : read(type, id);
+                String base = type == Type.BLOB ? bases.get(id) : null;
+                byte[] delta = base != null && writer.contains(type.code, base)
+                        ? Delta.create(read(type, base), data) : null;
+                long storedLength = delta == null ? data.length : delta.length + UID_LENGTH / 2;
+                if (!writer.isEmpty() && !writer.fits(storedLength)) {
+                    newPacks.add(writer.finish());
+                    writer = new PackFile.Writer(PACK_DIR, compressionLevel());
+                    delta = null;
+                }
+                if (delta == null) {
+                    writer.add(type.code, id, data);
+                } else {
+                    writer.addDelta(type.code, id, data.length, base, delta);
+                }
+            }
+        }
+        newPacks.add(writer.finish());
+        for (File pack : newPacks) {
+            Transaction.track(pack);
+            Transaction.track(PackFile.indexFileFor(pack));
+        }
+        Transaction.syncTracked();
+
+        for (File file : looseFiles) {
+            file.delete();
+        }
+        for (PackFile pack : oldPacks) {
+            File packFile = pack.getPackFile();
+            if (!newPacks.contains(packFile)) {
+                PackFile.indexFileFor(packFile).delete();
+                packFile.delete();
+            }
+        }
+        synchronized (ObjectStore.class) {
+            packs = null;
+        }
+        markNoLegacyCommits();
+    }
+
+    /** Moves loose objects for which LIVE holds into a new pack, until none
+     *  is left or, once at least MIN_PACK_BATCH are packed, the time given by
+     *  System.nanoTime() passes DEADLINE, and returns true iff none is left.
+     *  Objects too big to pack stay loose. */
+    static boolean packLoose(BiPredicate<Type, String> live, long deadline) {
+        if (!PACK_DIR.isDirectory() && !PACK_DIR.mkdir()) {
+            throw new IllegalArgumentException("Failed to create directory");
+        }
+        PackFile.Writer writer = new PackFile.Writer(PACK_DIR, compressionLevel());
+        List<File> packed = new ArrayList<>();
+        boolean done = true;
+        search:
+        for (Type type : Type.values()) {
+            List<String> names = plainFilenamesIn(type.dir);
+            for (String id : names == null ? List.<String>of() : names) {
+                long length = id.length() == UID_LENGTH ? length(type, id) : -1;
+                if (length < 0 || length > BIG_OBJECT_LENGTH || !live.test(type, id)) {
+                    continue;
+                } else if (!packed.isEmpty() && (!writer.fits(length)
+                        || packed.size() >= MIN_PACK_BATCH && System.nanoTime() > deadline)) {
+                    done = false;
+                    break search;
+                }
+                writer.add(type.code, id, read(type, id));
+                packed.add(join(type.dir, id));
+            }
+        }
+        File pack = writer.finish();
+        if (packed.isEmpty()) {
+            PackFile.indexFileFor(pack).delete();
+            pack.delete();
+            return true;
+        }
+        Transaction.track(pack);
+        Transaction.track(PackFile.indexFileFor(pack));
+        Transaction.syncTracked();
+        for (File file : packed) {
+            file.delete();
+        }
+        synchronized (ObjectStore.class) {
+            packs = null;
+        }
+        return done;
+    }
+
+    /** Deletes loose objects for which LIVE fails, commits first, then trees,
+     *  then blobs, until none is left or the time given by System.nanoTime()
+     *  passes DEADLINE, and returns true iff none is left. */
+    static boolean sweepLoose(BiPredicate<Type, String> live, long deadline) {
+        boolean deleted = false;
+        for (Type type : List.of(Type.COMMIT, Type.TREE, Type.BLOB)) {
+            List<String> names = plainFilenamesIn(type.dir);
+            for (String id : names == null ? List.<String>of() : names) {
+                if (id.length() != UID_LENGTH || live.test(type, id)) {
+                    continue;
+                } else if (deleted && System.nanoTime() > deadline) {
+                    return false;
+                }
+                join(type.dir, id).delete();
+                deleted = true;
+            }
+        }
+        return true;
+    }
+
+    /** Rewrites, one at a time, each pack holding objects for which LIVE
+     *  fails without them, until none is left or the time given by
+     *  System.nanoTime() passes DEADLINE, and returns true iff none is left.
+     *  Objects stored as deltas keep their bases where those are kept. */
+    static boolean sweepPacks(BiPredicate<Type, String> live, long deadline) {
+        boolean rewritten = false;
+        for (PackFile pack : packs()) {
+            List<PackFile.Key> keys = pack.keysInPackOrder();
+            List<PackFile.Key> kept = new ArrayList<>();
+            for (PackFile.Key key : keys) {
+                if (live.test(typeOf(key.type), key.id)) {
+                    kept.add(key);
+                }
+            }
+            if (kept.size() == keys.size()) {
+                continue;
+            } else if (rewritten && System.nanoTime() > deadline) {
+                return false;
+            }
+            File newPack = null;
+            if (!kept.isEmpty()) {
+                PackFile.Writer writer = new PackFile.Writer(PACK_DIR, compressionLevel());
+                for (PackFile.Key key : kept) {
+                    byte[] data = pack.read(key.type, key.id);
+                    String base = pack.baseOf(key.type, key.id);
+                    byte[] delta = base != null && writer.contains(key.type, base)
+                            ? Delta.create(pack.read(key.type, base), data) : null;
+                    if (delta == null) {
+                        writer.add(key.type, key.id, data);
+                    } else {
+                        writer.addDelta(key.type, key.id, data.length, base, delta);
+                    }
+                }
+                newPack = writer.finish();
+                Transaction.track(newPack);
+                Transaction.track(PackFile.indexFileFor(newPack));
+                Transaction.syncTracked();
+            }
+            File packFile = pack.getPackFile();
+            if (!packFile.equals(newPack)) {
+                PackFile.indexFileFor(packFile).delete();
+                packFile.delete();
+            }
+            rewritten = true;
+        }
+        synchronized (ObjectStore.class) {
+            packs = null;
+        }
+        return true;
+    }
+
+    /** Returns the type whose pack code is CODE. */
+    private static Type typeOf(byte code) {
+        for (Type type : Type.values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw error("Unknown object type %d.", code);
+    }
+}
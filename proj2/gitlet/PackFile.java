@@ -0,0 +1,573 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static gitlet.Utils.*;
+
+/** A read-only bundle of gitlet objects stored in one file.
+ *
+ *  A pack named pack-NAME.pack starts with a 12-byte header (magic, version,
+ *  entry count) and then holds its objects back to back, each as
+ *
+ *      UID (20) | type (1) | length (4) | stored length (4) | data
+ *
+ *  where data is the zlib-compressed contents, STORED LENGTH bytes long, and
+ *  LENGTH is the length of the contents once inflated.  An object may
+ *  instead be stored as a delta against another object of the same pack,
+ *  its base (see {@link Delta}), which is marked by the DELTA bit in its
+ *  type and stored as
+ *
+ *      UID (20) | type (1) | length (4) | stored length (4) | base UID (20) | data
+ *
+ *  where data is the zlib-compressed delta.  Reading such an object reads
+ *  its base first, which may itself be a delta; bases are kept in the
+ *  {@link ObjectCache}, since neighbouring versions of a file tend to be
+ *  read together.  Version 2 packs had no deltas, and version 1 packs had
+ *  no stored length and held the contents uncompressed.
+ *
+ *  The companion pack-NAME.idx maps UIDs to entry offsets.  After the same
+ *  12-byte header it holds a 256-entry fan-out table, whose entry B is the
+ *  number of UIDs whose first byte is at most B, then the sorted UIDs, then
+ *  the offset of each of them in the pack.  An object is known by its type
+ *  and UID together: a tree and a blob may have the same UID (the empty
+ *  tree and the empty file both hash to da39a3ee...), and are then two
+ *  entries of the same UID, told apart by their type.  Both files are memory-mapped, so
+ *  finding an object is a binary search over a small slice of the index and
+ *  reading it is a copy out of the page cache.
+ *
+ *  @author
+ */
+class PackFile {
+
+    /** Magic numbers at the start of pack and index files. */
+    private static final int PACK_MAGIC = 0x4750414b, INDEX_MAGIC = 0x47494458;
+
+    /** Version of the pack and index formats written by this class. */
+    private static final int VERSION = 3;
+
+    /** Bit of the type of an entry that marks it as a delta. */
+    private static final byte DELTA = (byte) 0x80;
+
+    /** Length in bytes of a raw UID. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** Length of the header of both pack and index files. */
+    private static final int HEADER_LENGTH = 12;
+
+    /** Length of the per-entry header in a pack. */
+    private static final int ENTRY_HEADER_LENGTH = ID_BYTES + 9;
+
+    /** Offset of the sorted UIDs in an index file. */
+    private static final int INDEX_IDS = HEADER_LENGTH + 256 * 4;
+
+    /** Largest pack we write, since a single mapping cannot address more. */
+    static final long MAX_PACK_LENGTH = Integer.MAX_VALUE;
+
+    /** The .pack file. */
+    private final File packFile;
+
+    /** The mapped contents of the .pack and .idx files. */
+    private final MappedByteBuffer pack, index;
+
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** Format version of this pack. */
+    private final int version;
+
+    /** Open the pack whose .pack file is PACKFILE. */
+    PackFile(File packFile) {
+        this.packFile = packFile;
+        this.pack = map(packFile);
+        this.index = map(indexFileFor(packFile));
+        this.version = pack.getInt(4);
+        if (pack.getInt(0) != PACK_MAGIC || index.getInt(0) != INDEX_MAGIC
+                || version < 1 || version > VERSION) {
+            throw error("Corrupt pack file %s.", packFile.getName());
+        }
+        this.count = index.getInt(8);
+    }
+
+    /** Returns the .idx file belonging to the .pack file PACKFILE. */
+    static File indexFileFor(File packFile) {
+        String name = packFile.getName();
+        return join(packFile.getParentFile(),
+                name.substring(0, name.length() - ".pack".length()) + ".idx");
+    }
+
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    File getPackFile() {
+        return packFile;
+    }
+
+    /** Returns the position of the UID ID in the index, or -1 if this pack
+     *  does not contain it. */
+    private int find(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(HEADER_LENGTH + 4 * (first - 1));
+        int hi = index.getInt(HEADER_LENGTH + 4 * first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(INDEX_IDS + mid * ID_BYTES, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the UID stored at POS in the index with ID. */
+    private int compareId(int pos, byte[] id) {
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Integer.compare(index.get(pos + i) & 0xff, id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the offset in the pack of the entry at position K of the index. */
+    private int offset(int k) {
+        return index.getInt(INDEX_IDS + count * ID_BYTES + 4 * k);
+    }
+
+    /** Returns the offset of the entry for object ID of type TYPE, or -1. */
+    private int entryOffset(byte type, String id) {
+        if (id.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] uid = hexToBytes(id);
+        int k = find(uid);
+        if (k < 0) {
+            return -1;
+        }
+        while (k > 0 && compareId(INDEX_IDS + (k - 1) * ID_BYTES, uid) == 0) {
+            k -= 1;
+        }
+        for (; k < count && compareId(INDEX_IDS + k * ID_BYTES, uid) == 0; k += 1) {
+            if (typeAt(offset(k)) == type) {
+                return offset(k);
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the type code of the entry at OFFSET in the pack. */
+    private byte typeAt(int offset) {
+        return (byte) (pack.get(offset + ID_BYTES) & ~DELTA);
+    }
+
+    /** Returns true iff this pack holds object ID of type TYPE. */
+    boolean contains(byte type, String id) {
+        return entryOffset(type, id) >= 0;
+    }
+
+    /** Returns the data of object ID of type TYPE, or null if this pack
+     *  does not hold it. */
+    byte[] read(byte type, String id) {
+        int offset = entryOffset(type, id);
+        if (offset < 0) {
+            return null;
+        }
+        ByteBuffer entry = pack.duplicate();
+        entry.position(offset + ID_BYTES);
+        boolean delta = (entry.get() & DELTA) != 0;
+        int length = entry.getInt();
+        if (version == 1) {
+            byte[] data = new byte[length];
+            entry.get(data);
+            return data;
+        }
+        int storedLength = entry.getInt();
+        if (!delta) {
+            return inflate(entry, storedLength, length, id);
+        }
+        byte[] baseId = new byte[ID_BYTES];
+        entry.get(baseId);
+        String base = bytesToHex(baseId);
+        byte[] baseData = ObjectCache.get("base " + type + " " + base, () -> {
+            byte[] data = read(type, base);
+            if (data == null) {
+                throw error("Missing delta base %s in %s.", base, packFile.getName());
+            }
+            return data;
+        }, data -> 64L + data.length);
+        byte[] data = Delta.apply(baseData, inflate(entry, storedLength, -1, id));
+        if (data.length != length) {
+            throw error("Corrupt object %s in %s.", id, packFile.getName());
+        }
+        return data;
+    }
+
+    /** Returns the inflated form of the STOREDLENGTH bytes at the position
+     *  of ENTRY, which belong to object ID and inflate to LENGTH bytes, or
+     *  to an unknown number if LENGTH is negative. */
+    private byte[] inflate(ByteBuffer entry, int storedLength, int length, String id) {
+        entry.limit(entry.position() + storedLength);
+        byte[] data = new byte[length >= 0 ? length : Math.max(64, 4 * storedLength)];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(entry);
+            int n = 0;
+            while (!inflater.finished() && (length < 0 || n < length)) {
+                if (n == data.length) {
+                    data = Arrays.copyOf(data, 2 * n);
+                }
+                int inflated = inflater.inflate(data, n, data.length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (length >= 0 ? n != length : !inflater.finished()) {
+                throw error("Corrupt object %s in %s.", id, packFile.getName());
+            }
+            return length >= 0 ? data : Arrays.copyOf(data, n);
+        } catch (DataFormatException excp) {
+            throw error("Corrupt object %s in %s.", id, packFile.getName());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Returns the length of object ID of type TYPE, or -1 if this pack
+     *  does not hold it. */
+    long length(byte type, String id) {
+        int offset = entryOffset(type, id);
+        return offset < 0 ? -1 : pack.getInt(offset + ID_BYTES + 1);
+    }
+
+    /** Returns the UIDs of all objects of type TYPE in this pack, in
+     *  lexicographic order. */
+    List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        byte[] id = new byte[ID_BYTES];
+        for (int k = 0; k < count; k += 1) {
+            if (typeAt(offset(k)) == type) {
+                index.get(INDEX_IDS + k * ID_BYTES, id);
+                result.add(bytesToHex(id));
+            }
+        }
+        return result;
+    }
+
+    /** The type code and UID of one object in a pack. */
+    static class Key {
+        final byte type;
+        final String id;
+
+        Key(byte type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+    }
+
+    /** Returns the type codes and UIDs of all objects in this pack in the
+     *  order they are stored, in which delta bases come before their
+     *  deltas. */
+    List<Key> keysInPackOrder() {
+        Integer[] order = new Integer[count];
+        for (int k = 0; k < count; k += 1) {
+            order[k] = k;
+        }
+        Arrays.sort(order, Comparator.comparingInt(this::offset));
+        List<Key> result = new ArrayList<>();
+        byte[] id = new byte[ID_BYTES];
+        for (int k : order) {
+            index.get(INDEX_IDS + k * ID_BYTES, id);
+            result.add(new Key(typeAt(offset(k)), bytesToHex(id)));
+        }
+        return result;
+    }
+
+    /** Returns the UID of the delta base of object ID of type TYPE, which
+     *  this pack must hold, or null if it is stored whole. */
+    String baseOf(byte type, String id) {
+        int offset = entryOffset(type, id);
+        if ((pack.get(offset + ID_BYTES) & DELTA) == 0) {
+            return null;
+        }
+        byte[] base = new byte[ID_BYTES];
+        pack.get(offset + ENTRY_HEADER_LENGTH, base);
+        return bytesToHex(base);
+    }
+
+    /** Reads a pack, as made by a {@link Writer}, from IN, which must hold
+     *  nothing after it, into a new pack in DIR, and returns its .pack file,
+     *  or null if it holds no objects.  Used to receive the objects sent by
+     *  another repository (see {@link Remote}). */
+    static File receive(InputStream in, File dir) {
+        File tempFile = null;
+        try {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            if (data.readInt() != PACK_MAGIC || data.readInt() != VERSION) {
+                throw error("Corrupt pack stream.");
+            }
+            int count = data.readInt();
+            if (count <= 0) {
+                return null;
+            }
+            tempFile = File.createTempFile("tmp_pack_", null, dir);
+            List<String> ids = new ArrayList<>();
+            List<Integer> offsets = new ArrayList<>();
+            Set<String> added = new HashSet<>();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile)))) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                byte[] header = new byte[ENTRY_HEADER_LENGTH];
+                byte[] base = new byte[ID_BYTES];
+                byte[] buffer = new byte[1 << 16];
+                for (int k = 0; k < count; k += 1) {
+                    data.readFully(header);
+                    ByteBuffer entry = ByteBuffer.wrap(header, ID_BYTES, 9);
+                    byte tag = entry.get();
+                    boolean delta = (tag & DELTA) != 0;
+                    entry.getInt();
+                    long storedLength = entry.getInt() & 0xffffffffL;
+                    String id = bytesToHex(Arrays.copyOf(header, ID_BYTES));
+                    offsets.add(out.size());
+                    out.write(header);
+                    if (delta) {
+                        data.readFully(base);
+                        if (!added.contains(key((byte) (tag & ~DELTA), bytesToHex(base)))) {
+                            throw error("Corrupt pack stream.");
+                        }
+                        out.write(base);
+                    }
+                    for (long left = storedLength; left > 0; ) {
+                        int n = data.read(buffer, 0, (int) Math.min(buffer.length, left));
+                        if (n < 0) {
+                            throw new EOFException();
+                        }
+                        out.write(buffer, 0, n);
+                        left -= n;
+                    }
+                    if ((long) out.size() > MAX_PACK_LENGTH) {
+                        throw error("Pack stream too large.");
+                    }
+                    ids.add(id);
+                    added.add(key((byte) (tag & ~DELTA), id));
+                }
+            }
+            File packFile = install(dir, tempFile, ids, offsets);
+            tempFile = null;
+            return packFile;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /** Returns a string that identifies object ID of type TYPE. */
+    private static String key(byte type, String id) {
+        return (char) type + id;
+    }
+
+    /** Writes the index of the entries with UIDs IDS, at OFFSETS, of the
+     *  pack in TEMPFILE, and moves both into DIR under the pack's name,
+     *  returning the .pack file. */
+    private static File install(File dir, File tempFile, List<String> ids,
+                                List<Integer> offsets) throws IOException {
+        Integer[] order = new Integer[ids.size()];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(ids::get));
+        List<Object> sortedIds = new ArrayList<>();
+        for (int i : order) {
+            sortedIds.add(ids.get(i));
+        }
+        String name = "pack-" + sha1(sortedIds);
+
+        File tempIndex = File.createTempFile("tmp_idx_", null, dir);
+        try (DataOutputStream idx = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempIndex)))) {
+            idx.writeInt(INDEX_MAGIC);
+            idx.writeInt(VERSION);
+            idx.writeInt(order.length);
+            int[] fanout = new int[256];
+            for (String id : ids) {
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+            int total = 0;
+            for (int b = 0; b < 256; b += 1) {
+                total += fanout[b];
+                idx.writeInt(total);
+            }
+            for (int i : order) {
+                idx.write(hexToBytes(ids.get(i)));
+            }
+            for (int i : order) {
+                idx.writeInt(offsets.get(i));
+            }
+        }
+
+        File packFile = join(dir, name + ".pack");
+        Files.move(tempIndex.toPath(), indexFileFor(packFile).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tempFile.toPath(), packFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        return packFile;
+    }
+
+    /** Writes a new pack into a directory.  Objects are streamed to a
+     *  temporary file as they are added; {@link #finish} writes the index
+     *  and gives both files their final names. */
+    static class Writer {
+
+        /** Starts a new, empty pack in DIR whose objects are compressed at
+         *  zlib level LEVEL. */
+        Writer(File dir, int level) {
+            this.dir = dir;
+            this.deflater = new Deflater(level);
+            try {
+                tempFile = File.createTempFile("tmp_pack_", null, dir);
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tempFile)));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            length = HEADER_LENGTH;
+        }
+
+        /** Returns true iff an object of LEN bytes still fits in this pack,
+         *  even if compression makes it larger. */
+        boolean fits(long len) {
+            long bound = len + (len >> 12) + (len >> 14) + (len >> 25) + 13;
+            return length + ENTRY_HEADER_LENGTH + bound <= MAX_PACK_LENGTH;
+        }
+
+        boolean isEmpty() {
+            return ids.isEmpty();
+        }
+
+        /** Returns true iff object ID of type TYPE has been added to this
+         *  pack. */
+        boolean contains(byte type, String id) {
+            return added.contains(key(type, id));
+        }
+
+        /** Appends object ID of type TYPE with contents DATA. */
+        void add(byte type, String id, byte[] data) {
+            write(type, id, data.length, null, data);
+        }
+
+        /** Appends object ID of type TYPE, which is LENGTH bytes long, as
+         *  DELTA against object BASE, which must be in this pack already. */
+        void addDelta(byte type, String id, int length, String base, byte[] delta) {
+            write((byte) (type | DELTA), id, length, base, delta);
+        }
+
+        /** Writes the entry for object ID with type TAG and length LENGTH,
+         *  holding CONTENTS, and, unless null, the UID BASE. */
+        private void write(byte tag, String id, int length, String base, byte[] contents) {
+            deflater.reset();
+            deflater.setInput(contents);
+            deflater.finish();
+            compressed.reset();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                compressed.write(buffer, 0, n);
+            }
+            try {
+                out.write(hexToBytes(id));
+                out.writeByte(tag);
+                out.writeInt(length);
+                out.writeInt(compressed.size());
+                if (base != null) {
+                    out.write(hexToBytes(base));
+                }
+                compressed.writeTo(out);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            ids.add(id);
+            added.add(key((byte) (tag & ~DELTA), id));
+            offsets.add((int) this.length);
+            this.length += ENTRY_HEADER_LENGTH + (base == null ? 0 : ID_BYTES)
+                    + compressed.size();
+        }
+
+        /** Completes the pack and its index, returning the .pack file. */
+        File finish() {
+            deflater.end();
+            try {
+                out.close();
+                try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+                    raf.seek(8);
+                    raf.writeInt(ids.size());
+                }
+                return install(dir, tempFile, ids, offsets);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Directory that receives the pack. */
+        private final File dir;
+
+        /** The pack under construction and the stream writing it. */
+        private final File tempFile;
+        private final DataOutputStream out;
+
+        /** Current length of the pack. */
+        private long length;
+
+        /** Compressor for entries, and space for its output. */
+        private final Deflater deflater;
+        private final byte[] buffer = new byte[1 << 16];
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        /** UIDs and offsets of the entries written so far, in pack order,
+         *  and their keys (see {@link PackFile#key}). */
+        private final List<String> ids = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+        private final Set<String> added = new HashSet<>();
+    }
+}
@@ -0,0 +1,427 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** Remotes: other gitlet repositories on this machine, named by add-remote,
+ *  whose branches can be fetched, pulled and pushed.
+ *
+ *  .gitlet/remotes/NAME holds the path of the remote's .gitlet directory,
+ *  as given to add-remote, relative to the working directory unless it is
+ *  absolute.  A branch B fetched from remote R becomes the local branch
+ *  R/B, stored as refs/heads/R/B.
+ *
+ *  As in Git, the other repository is never read or written directly:
+ *  fetch runs "gitlet upload-pack B" and push runs "gitlet receive-pack B"
+ *  in the remote's working directory, so that the remote takes its own
+ *  {@link RepositoryLock} and keeps its own indexes, and the two talk over
+ *  the child's standard input and output.  The receiving side tells the
+ *  sending side the heads of its branches; the sender walks its
+ *  {@link CommitGraph} for the commits reachable from the head being sent
+ *  but from none of those it knows, collects the trees and blobs those
+ *  commits add to their first parents, and sends them all as a single pack
+ *  stream (see {@link PackFile}), which the receiver stores as a new pack.
+ *  So a transfer moves only what the receiver lacks.  Push only moves the
+ *  remote's branch; the remote's working directory is left as it was.
+ *
+ *  The exchanges are, with lines ending in newlines:
+ *
+ *      fetch:  have ID ...                   to upload-pack, then EOF
+ *              ref ID, pack                  from upload-pack
+ *      push:   ref ID|none, have ID ..., ""  from receive-pack
+ *              update ID, pack               to receive-pack (or just EOF)
+ *              ok                            from receive-pack
+ *
+ *  A remote command that fails prints its message in place of the line
+ *  expected, and the local command reports it.
+ *
+ *  @author
+ */
+class Remote {
+
+    /** The directory of remote definitions. */
+    static final File REMOTES_DIR = join(Repository.GITLET_DIR, "remotes");
+
+    /** Stands for the head of a branch the remote does not have. */
+    private static final String NONE = "none";
+
+    /** Records that the repository whose .gitlet directory is PATH is the
+     *  remote NAME. */
+    static void add(String name, String path) {
+        checkName(name);
+        File file = join(REMOTES_DIR, name);
+        if (file.exists()) {
+            throw new GitletException("A remote with that name already exists.");
+        }
+        if (!REMOTES_DIR.isDirectory() && !REMOTES_DIR.mkdir()) {
+            throw new IllegalArgumentException("Failed to create directory");
+        }
+        Transaction transaction = new Transaction();
+        transaction.write(file, path);
+        transaction.commit();
+    }
+
+    /** Forgets the remote NAME. */
+    static void remove(String name) {
+        checkName(name);
+        File file = join(REMOTES_DIR, name);
+        if (!file.isFile()) {
+            throw new GitletException("A remote with that name does not exist.");
+        }
+        Transaction transaction = new Transaction();
+        transaction.delete(file);
+        transaction.commit();
+    }
+
+    /** Copies the commits of branch BRANCH of remote NAME that this
+     *  repository lacks, and points the branch NAME/BRANCH at its head. */
+    static void fetch(String name, String branch) {
+        File remote = directory(name);
+        Process process = start(remote, "upload-pack", branch);
+        try {
+            try (OutputStream out = new BufferedOutputStream(process.getOutputStream())) {
+                for (String have : heads()) {
+                    out.write(bytes("have " + have + "\n"));
+                }
+            }
+            InputStream in = new BufferedInputStream(process.getInputStream());
+            String head = expect(in, "ref ").substring(4);
+            receive(in, head, pack -> true);
+            File dir = join(Repository.HEADS_DIR, name);
+            if (!dir.isDirectory() && !dir.mkdir()) {
+                throw new IllegalArgumentException("Failed to create directory");
+            }
+            Transaction transaction = new Transaction();
+            transaction.write(join(dir, branch), head);
+            transaction.commit();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            finish(process);
+        }
+    }
+
+    /** Fetches branch BRANCH of remote NAME and merges NAME/BRANCH into the
+     *  current branch. */
+    static void pull(String name, String branch) {
+        fetch(name, branch);
+        Repository.merge(name + "/" + branch);
+    }
+
+    /** Sends the commits of the current branch that remote NAME lacks and
+     *  points its branch BRANCH at the current head, which must descend
+     *  from the remote head. */
+    static void push(String name, String branch) {
+        File remote = directory(name);
+        String head = readContentsAsString(join(Repository.HEADS_DIR,
+                readContentsAsString(Repository.HEAD_FILE)));
+        Process process = start(remote, "receive-pack", branch);
+        try {
+            InputStream in = new BufferedInputStream(process.getInputStream());
+            String remoteHead = expect(in, "ref ").substring(4);
+            List<String> haves = new ArrayList<>();
+            for (String line = readLine(in); line != null && !line.isEmpty();
+                 line = readLine(in)) {
+                haves.add(line.substring("have ".length()));
+            }
+            try (OutputStream out = new BufferedOutputStream(process.getOutputStream())) {
+                if (!remoteHead.equals(NONE) && !isAncestor(remoteHead, head)) {
+                    throw new GitletException("Please pull down remote changes before pushing.");
+                }
+                out.write(bytes("update " + head + "\n"));
+                ObjectStore.writePack(objectsOf(missingCommits(head, haves)), out);
+            }
+            expect(in, "ok");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            finish(process);
+        }
+    }
+
+    /** The remote side of fetch: sends the commits of branch BRANCH that
+     *  the fetching repository, whose heads are read from the standard
+     *  input, lacks. */
+    static void uploadPack(String branch) {
+        List<String> haves = new ArrayList<>();
+        InputStream in = new BufferedInputStream(System.in);
+        for (String line = readLine(in); line != null; line = readLine(in)) {
+            haves.add(line.substring("have ".length()));
+        }
+        File ref = join(Repository.HEADS_DIR, branch);
+        if (!ref.isFile()) {
+            throw new GitletException("That remote does not have that branch.");
+        }
+        String head = readContentsAsString(ref);
+        OutputStream out = new BufferedOutputStream(System.out);
+        try {
+            out.write(bytes("ref " + head + "\n"));
+            ObjectStore.writePack(objectsOf(missingCommits(head, haves)), out);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The remote side of push: stores the commits sent and moves branch
+     *  BRANCH, creating it if need be, to the head sent. */
+    static void receivePack(String branch) {
+        File ref = join(Repository.HEADS_DIR, branch);
+        String current = ref.isFile() ? readContentsAsString(ref) : NONE;
+        StringBuilder refs = new StringBuilder("ref " + current + "\n");
+        for (String have : heads()) {
+            refs.append("have ").append(have).append('\n');
+        }
+        System.out.print(refs.append('\n'));
+        System.out.flush();
+
+        InputStream in = new BufferedInputStream(System.in);
+        String update = readLine(in);
+        if (update == null) {
+            return;
+        } else if (!update.startsWith("update ")) {
+            throw new GitletException("Bad push request.");
+        }
+        String head = update.substring("update ".length());
+        if (!receive(in, head,
+                pack -> current.equals(NONE) || isAncestor(current, head, pack))) {
+            throw new GitletException("Please pull down remote changes before pushing.");
+        }
+        Transaction transaction = new Transaction();
+        transaction.write(ref, head);
+        transaction.commit();
+        System.out.print("ok\n");
+        System.out.flush();
+    }
+
+    /** Stores the pack read from IN, which must make commit HEAD and all
+     *  its history available, and adds its new commits to the indexes,
+     *  provided ACCEPT holds for the pack (see ObjectStore#readPack).
+     *  Returns false, having stored nothing, if it does not. */
+    private static boolean receive(InputStream in, String head,
+                                   Predicate<PackFile> accept) {
+        List<String> commits = ObjectStore.readPack(in, accept);
+        if (commits == null) {
+            return false;
+        }
+        if (!ObjectStore.contains(ObjectStore.Type.COMMIT, head)) {
+            throw error("Missing commit %s after transfer.", head);
+        }
+        for (String id : commits) {
+            CommitIdIndex.add(id);
+            MessageIndex.add(Commit.fromId(id));
+        }
+        CommitGraph.get().add(Commit.fromId(head));
+        return true;
+    }
+
+    /** Returns the heads of all branches of this repository. */
+    private static Set<String> heads() {
+        Set<String> heads = new LinkedHashSet<>();
+        for (String branch : Repository.branchNames()) {
+            heads.add(readContentsAsString(join(Repository.HEADS_DIR, branch)));
+        }
+        return heads;
+    }
+
+    /** Returns true iff commit ANCESTOR is in this repository and is an
+     *  ancestor of (or is) commit ID. */
+    private static boolean isAncestor(String ancestor, String id) {
+        return ObjectStore.contains(ObjectStore.Type.COMMIT, ancestor)
+            && ancestor.equals(CommitGraph.get().mergeBase(ancestor, id));
+    }
+
+    /** Returns true iff commit ANCESTOR is in this repository and is an
+     *  ancestor of (or is) commit ID, whose history is in this repository
+     *  or in PACK, which is not stored yet and may be null. */
+    private static boolean isAncestor(String ancestor, String id, PackFile pack) {
+        if (!ObjectStore.contains(ObjectStore.Type.COMMIT, ancestor)) {
+            return false;
+        }
+        Set<String> seen = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(List.of(id));
+        while (!pending.isEmpty()) {
+            String next = pending.pop();
+            if (!seen.add(next)) {
+                continue;
+            }
+            if (ObjectStore.contains(ObjectStore.Type.COMMIT, next)) {
+                if (isAncestor(ancestor, next)) {
+                    return true;
+                }
+            } else if (pack != null && pack.contains(ObjectStore.Type.COMMIT.code, next)) {
+                byte[] data = pack.read(ObjectStore.Type.COMMIT.code, next);
+                pending.addAll(Commit.decode(next, data).getParents());
+            }
+        }
+        return false;
+    }
+
+    /** Returns the UIDs of the commits reachable from HEAD but not from any
+     *  of HAVES, ignoring those of HAVES this repository does not hold. */
+    private static List<String> missingCommits(String head, Collection<String> haves) {
+        CommitGraph graph = CommitGraph.get();
+        BitSet seen = new BitSet();
+        Deque<Integer> pending = new ArrayDeque<>();
+        for (String id : haves) {
+            if (ObjectStore.contains(ObjectStore.Type.COMMIT, id)) {
+                pending.push(graph.position(id));
+            }
+        }
+        walk(graph, pending, seen, null);
+        List<String> result = new ArrayList<>();
+        pending.push(graph.position(head));
+        walk(graph, pending, seen, result);
+        return result;
+    }
+
+    /** Marks in SEEN the commits reachable from those at PENDING that are
+     *  not marked yet, adding their UIDs to OUT unless it is null. */
+    private static void walk(CommitGraph graph, Deque<Integer> pending, BitSet seen,
+                             List<String> out) {
+        while (!pending.isEmpty()) {
+            int k = pending.pop();
+            if (seen.get(k)) {
+                continue;
+            }
+            seen.set(k);
+            if (out != null) {
+                out.add(graph.id(k));
+            }
+            for (int parent : graph.parents(k)) {
+                pending.push(parent);
+            }
+        }
+    }
+
+    /** Returns the objects to send for COMMITS: the commits, and the trees
+     *  and blobs each adds to its first parent, which the receiver holds or
+     *  is sent too. */
+    private static Map<ObjectStore.Type, Set<String>> objectsOf(List<String> commits) {
+        Set<String> trees = new LinkedHashSet<>(), blobs = new LinkedHashSet<>();
+        for (String id : commits) {
+            Commit commit = Commit.fromId(id);
+            List<String> parents = commit.getParents();
+            String base = parents.isEmpty() ? null : Commit.fromId(parents.get(0)).getTreeId();
+            Tree.collectNew(base, commit.getTreeId(), trees, blobs);
+        }
+        Map<ObjectStore.Type, Set<String>> result = new EnumMap<>(ObjectStore.Type.class);
+        result.put(ObjectStore.Type.COMMIT, new LinkedHashSet<>(commits));
+        result.put(ObjectStore.Type.TREE, trees);
+        result.put(ObjectStore.Type.BLOB, blobs);
+        return result;
+    }
+
+    /** Returns the .gitlet directory of remote NAME. */
+    private static File directory(String name) {
+        checkName(name);
+        File file = join(REMOTES_DIR, name);
+        if (!file.isFile()) {
+            throw new GitletException("A remote with that name does not exist.");
+        }
+        String path = readContentsAsString(file).replace('/', File.separatorChar);
+        File dir = Paths.get(path).isAbsolute() ? new File(path) : join(Repository.CWD, path);
+        if (!dir.isDirectory() || !join(dir, "objects").isDirectory()) {
+            throw new GitletException("Remote directory not found.");
+        }
+        try {
+            if (dir.getCanonicalFile().equals(Repository.GITLET_DIR.getCanonicalFile())) {
+                throw new GitletException("A repository cannot be its own remote.");
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return dir;
+    }
+
+    private static void checkName(String name) {
+        if (name.isEmpty() || name.contains("/") || name.contains(File.separator)
+                || name.startsWith(".")) {
+            throw new GitletException("Incorrect operands.");
+        }
+    }
+
+    /** Starts gitlet with ARGS in the working directory of the repository
+     *  whose .gitlet directory is REMOTE. */
+    private static Process start(File remote, String... args) {
+        List<String> command = new ArrayList<>(List.of(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), Main.class.getName()));
+        command.addAll(List.of(args));
+        try {
+            return new ProcessBuilder(command).directory(remote.getParentFile())
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Waits for PROCESS to end, ending it first if it is still waiting
+     *  for input. */
+    private static void finish(Process process) {
+        try {
+            process.getOutputStream().close();
+            process.getInputStream().close();
+            process.waitFor();
+        } catch (IOException excp) {
+            process.destroy();
+        } catch (InterruptedException excp) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Reads a line from IN and returns it if it starts with PREFIX;
+     *  otherwise the remote failed, and its message is reported. */
+    private static String expect(InputStream in, String prefix) {
+        String line = readLine(in);
+        if (line == null) {
+            throw new GitletException("The remote gitlet command failed.");
+        } else if (!line.startsWith(prefix)) {
+            throw new GitletException(line);
+        }
+        return line;
+    }
+
+    /** Returns the next line of IN, without its newline, or null at the end
+     *  of IN.  Reads nothing past the newline. */
+    private static String readLine(InputStream in) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try {
+            for (int c = in.read(); c != '\n'; c = in.read()) {
+                if (c < 0) {
+                    return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+                }
+                line.write(c);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,210 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/** Detection of renamed and copied files between two versions of a set of
+ *  files, used by status, merge and diff.
+ *
+ *  A file that disappears from one path and appears at another is a
+ *  rename if the two versions are similar enough.  Renames with the same
+ *  contents are found first, by blob id.  The rest are compared by the
+ *  Jaccard similarity of their sets of lines, estimated from minhash
+ *  signatures: each set is summarized by the smallest value, over its
+ *  lines, of each of SIGNATURE_SIZE hash functions, and the fraction of
+ *  those minima two sets share estimates their similarity.  Signatures,
+ *  and then the best matches of each added file, are computed on up to
+ *  checkout.workers threads.  Pairs at least THRESHOLD percent similar are
+ *  then paired off, most similar first.
+ *
+ *  Copies are found the same way, against files that were kept: unlike a
+ *  removed file, such a file may be the source of several copies.  With
+ *  more than diff.renameLimit (see {@link Config}) files on either side,
+ *  only exact renames and copies are looked for.
+ *
+ *  @author
+ */
+class Renames {
+
+    /** Least similarity, in percent, of a rename or copy. */
+    static final int THRESHOLD = 50;
+
+    /** Number of hash functions in a minhash signature. */
+    private static final int SIGNATURE_SIZE = 64;
+
+    /** Default limit on the files compared by similarity. */
+    private static final int DEFAULT_LIMIT = 1000;
+
+    /** A file at path FROM that is found, SCORE percent similar, at path TO. */
+    static class Rename {
+        final String from, to;
+        final int score;
+        /** True if FROM was kept, so that TO is a copy of it. */
+        final boolean copy;
+
+        Rename(String from, String to, int score, boolean copy) {
+            this.from = from;
+            this.to = to;
+            this.score = score;
+            this.copy = copy;
+        }
+    }
+
+    /** The minhash signature of the lines of one blob. */
+    private static class Signature {
+        final long[] minima = new long[SIGNATURE_SIZE];
+        /** Number of distinct lines. */
+        final int lines;
+
+        Signature(byte[] data) {
+            Set<Long> hashes = new HashSet<>();
+            for (int start = 0, end; start < data.length; start = end + 1) {
+                end = start;
+                while (end < data.length && data[end] != '\n') {
+                    end += 1;
+                }
+                int last = end > start && data[end - 1] == '\r' ? end - 1 : end;
+                long hash = 0xcbf29ce484222325L;
+                for (int k = start; k < last; k += 1) {
+                    hash = (hash ^ (data[k] & 0xff)) * 0x100000001b3L;
+                }
+                hashes.add(hash);
+            }
+            lines = hashes.size();
+            Arrays.fill(minima, Long.MAX_VALUE);
+            for (long hash : hashes) {
+                for (int k = 0; k < SIGNATURE_SIZE; k += 1) {
+                    minima[k] = Math.min(minima[k], mix(hash + k * 0x9e3779b97f4a7c15L));
+                }
+            }
+        }
+
+        /** Returns the estimated similarity, in percent, of this and OTHER,
+         *  or 0 if it cannot reach THRESHOLD.  Only identical blobs, found
+         *  by id, are 100% similar. */
+        int similarity(Signature other) {
+            int small = Math.min(lines, other.lines), large = Math.max(lines, other.lines);
+            if (small == 0 || 100L * small < (long) THRESHOLD * large) {
+                return 0;
+            }
+            int same = 0;
+            for (int k = 0; k < SIGNATURE_SIZE; k += 1) {
+                if (minima[k] == other.minima[k]) {
+                    same += 1;
+                }
+            }
+            return Math.min(99, 100 * same / SIGNATURE_SIZE);
+        }
+
+        private static long mix(long x) {
+            x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+            x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return x ^ (x >>> 33);
+        }
+    }
+
+    /** Returns the renames of files in REMOVED to files in ADDED, each a map
+     *  from path to blob id, sorted by the path renamed to. */
+    static List<Rename> detect(Map<String, String> removed, Map<String, String> added) {
+        return detect(removed, added, Map.of(), id -> Blob.fromId(id).getContents());
+    }
+
+    /** Returns, sorted by the path renamed or copied to, the renames of
+     *  files in REMOVED and copies of files in KEPT to files in ADDED, each a
+     *  map from path to blob id.  Each file of ADDED and REMOVED is in at
+     *  most one of them.  CONTENTS gives the contents of a blob id. */
+    static List<Rename> detect(Map<String, String> removed, Map<String, String> added,
+                               Map<String, String> kept, Function<String, byte[]> contents) {
+        Map<String, Rename> found = new TreeMap<>();
+        if (added.isEmpty() || (removed.isEmpty() && kept.isEmpty())) {
+            return new ArrayList<>();
+        }
+        Map<String, List<String>> removedByBlob = new HashMap<>();
+        for (Map.Entry<String, String> file : new TreeMap<>(removed).entrySet()) {
+            removedByBlob.computeIfAbsent(file.getValue(), k -> new ArrayList<>())
+                .add(file.getKey());
+        }
+        Map<String, String> keptByBlob = new HashMap<>();
+        for (Map.Entry<String, String> file : new TreeMap<>(kept).entrySet()) {
+            keptByBlob.putIfAbsent(file.getValue(), file.getKey());
+        }
+        Set<String> used = new HashSet<>();
+        for (Map.Entry<String, String> file : new TreeMap<>(added).entrySet()) {
+            List<String> sources = removedByBlob.get(file.getValue());
+            if (sources != null && !sources.isEmpty()) {
+                String from = sources.remove(0);
+                used.add(from);
+                found.put(file.getKey(), new Rename(from, file.getKey(), 100, false));
+            } else if (keptByBlob.containsKey(file.getValue())) {
+                found.put(file.getKey(),
+                    new Rename(keptByBlob.get(file.getValue()), file.getKey(), 100, true));
+            }
+        }
+
+        Map<String, String> targets = new TreeMap<>(added), sources = new TreeMap<>(kept);
+        targets.keySet().removeAll(found.keySet());
+        sources.putAll(removed);
+        sources.keySet().removeAll(used);
+        int limit = Config.getInt("diff.renameLimit", DEFAULT_LIMIT, 0, Integer.MAX_VALUE);
+        if (targets.isEmpty() || sources.isEmpty()
+                || targets.size() > limit || sources.size() > limit) {
+            return new ArrayList<>(found.values());
+        }
+        for (Rename pair : similarPairs(sources, targets, contents)) {
+            boolean copy = !removed.containsKey(pair.from);
+            if (!found.containsKey(pair.to) && (copy || used.add(pair.from))) {
+                found.put(pair.to, new Rename(pair.from, pair.to, pair.score, copy));
+            }
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    /** Returns every pair of a file in SOURCES and one in TARGETS that is at
+     *  least THRESHOLD percent similar, most similar first. */
+    private static List<Rename> similarPairs(Map<String, String> sources,
+                                             Map<String, String> targets,
+                                             Function<String, byte[]> contents) {
+        Map<String, Signature> signatures = new ConcurrentHashMap<>();
+        Set<String> blobs = new HashSet<>(sources.values());
+        blobs.addAll(targets.values());
+        List<Runnable> tasks = new ArrayList<>();
+        for (String blob : blobs) {
+            tasks.add(() -> signatures.put(blob, new Signature(contents.apply(blob))));
+        }
+        Utils.runInParallel(tasks);
+
+        List<Rename> pairs = new ArrayList<>();
+        List<List<Rename>> results = new ArrayList<>();
+        tasks.clear();
+        for (Map.Entry<String, String> target : targets.entrySet()) {
+            List<Rename> result = new ArrayList<>();
+            results.add(result);
+            tasks.add(() -> {
+                Signature signature = signatures.get(target.getValue());
+                for (Map.Entry<String, String> source : sources.entrySet()) {
+                    int score = signature.similarity(signatures.get(source.getValue()));
+                    if (score >= THRESHOLD) {
+                        result.add(new Rename(source.getKey(), target.getKey(), score, false));
+                    }
+                }
+            });
+        }
+        Utils.runInParallel(tasks);
+        for (Collection<Rename> result : results) {
+            pairs.addAll(result);
+        }
+        pairs.sort(Comparator.comparingInt((Rename pair) -> -pair.score)
+            .thenComparing(pair -> pair.to).thenComparing(pair -> pair.from));
+        return pairs;
+    }
+}
@@ -1,8 +1,16 @@
 package gitlet;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static gitlet.Utils.*;
 
@@ -19,12 +27,17 @@ public class Repository {
      * The current working directory.
      *   .gitlet
      *      |--objects
-     *      |     |--commit and blob
+     *      |     |--commits, trees and blobs
+     *      |     |--pack
+     *      |     |--info
+     *      |          |--commit-graph
+     *      |          |--commit-ids
      *      |--refs
      *      |    |--heads
      *      |         |--master
      *      |--HEAD
      *      |--stage
+     *      |--stat_cache
      */
     public static final File CWD = new File(System.getProperty("user.dir"));
 
@@ -35,34 +48,32 @@ public class Repository {
 
     public static final File COMMITS_DIR = join(OBJECTS_DIR, "commits");
 
+    public static final File TREES_DIR = join(OBJECTS_DIR, "trees");
+
     public static final File BLOBS_DIR = join(OBJECTS_DIR, "blobs");
 
+    public static final File INFO_DIR = join(OBJECTS_DIR, "info");
+
     public static final File REFS_DIR = join(GITLET_DIR, "refs");
 
     public static final File HEADS_DIR = join(REFS_DIR, "heads");
 
     public static final File HEAD_FILE = join(GITLET_DIR, "HEAD");
 
-    public static final File ADD_STAGE_FILE = join(GITLET_DIR, "add_stage");
-
-    public static final File REMOVE_STAGE_FILE = join(GITLET_DIR, "remove_stage");
-
     private static Commit currentCommit;
 
     private static String currentBranch;
 
-    private static Stage addStage = new Stage();
-
-    private static Stage removeStage = new Stage();
+    private static Stage stage;
 
     public static void init() {
         if (GITLET_DIR.exists()) {
-            System.out.println("A Gitlet version-control system already exists "
+            throw new GitletException("A Gitlet version-control system already exists "
                     + "in the current directory.");
-            System.exit(0);
         }
         if (!GITLET_DIR.mkdir() || !OBJECTS_DIR.mkdir() || !REFS_DIR.mkdir()
-                || !HEADS_DIR.mkdir() || !COMMITS_DIR.mkdir() || !BLOBS_DIR.mkdir()) {
+                || !HEADS_DIR.mkdir() || !COMMITS_DIR.mkdir() || !TREES_DIR.mkdir()
+                || !BLOBS_DIR.mkdir() || !INFO_DIR.mkdir()) {
             throw new IllegalArgumentException("Failed to create directory");
         }
         // Initialise commit
@@ -70,68 +81,45 @@ public class Repository {
         currentCommit = commit;
         commit.save();
 
-        // Initialise HEAD
-        writeContents(HEAD_FILE, "master");
-
-        // Initialise heads
-        writeContents(join(HEADS_DIR, "master"), currentCommit.getId());
+        // Initialise HEAD and heads
+        Transaction transaction = new Transaction();
+        transaction.write(HEAD_FILE, "master");
+        transaction.write(join(HEADS_DIR, "master"), currentCommit.getId());
+        transaction.commit();
 
     }
 
     public static void checkIfInitialised() {
         if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw new GitletException("Not in an initialized Gitlet directory.");
         }
     }
 
     public static void add(String file) {
         File filename = join(CWD, file);
         if (!filename.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+            throw new GitletException("File does not exist.");
         }
-        Blob blob = new Blob(filename);
+        String filePath = filename.getPath();
+        StatCache statCache = StatCache.get();
         currentCommit = getCurrentCommit();
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        if (!currentCommit.getFilePathToBlobId().containsValue(blob.getId())
-                || !removeStage.isNew(blob)) {
-            if (addStage.isNew(blob)) {
-                if (removeStage.isNew(blob)) {
-                    blob.save();
-                    if (addStage.isFilePathExists(blob.getFilePath())) {
-                        addStage.delete(blob);
-                    }
-                    addStage.add(blob);
-                    addStage.saveAddStage();
-                } else {
-                    removeStage.delete(blob);
-                    removeStage.saveRemoveStage();
-                }
-            }
-        }
-    }
-
-    private static Stage readAddStage() {
-        if (!ADD_STAGE_FILE.exists()) {
-            return new Stage();
-        }
-        return readObject(ADD_STAGE_FILE, Stage.class);
-    }
-
-    private static Stage readRemoveStage() {
-        if (!REMOVE_STAGE_FILE.exists()) {
-            return new Stage();
+        stage = Stage.read();
+        String trackedId = currentCommit.getFilePathToBlobId().get(filePath);
+        if (trackedId != null && trackedId.equals(statCache.blobId(filename))) {
+            stage.unstage(filePath);
+        } else {
+            Blob blob = Blob.fromFile(filename);
+            statCache.update(filename, blob.getId());
+            stage.add(filePath, blob.getId());
         }
-        return readObject(REMOVE_STAGE_FILE, Stage.class);
+        stage.save();
+        statCache.save();
     }
 
     private static Commit getCurrentCommit() {
         String currentBranchName = getCurrentBranch();
         String currentCommitId = readContentsAsString(join(HEADS_DIR, currentBranchName));
-        File currentCommitFile = join(COMMITS_DIR, currentCommitId);
-        return readObject(currentCommitFile, Commit.class);
+        return Commit.fromId(currentCommitId);
     }
 
     private static String getCurrentBranch() {
@@ -140,164 +128,205 @@ public class Repository {
 
     public static void commit(String message) {
         if ("".equals(message)) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw new GitletException("Please enter a commit message.");
         }
         Commit newCommit = getNewCommit(message);
         saveNewCommit(newCommit);
     }
 
+    /** Stores COMMIT and makes it the head of the current branch, clearing
+     *  the staging area in the same transaction. */
     private static void saveNewCommit(Commit commit) {
         commit.save();
-        addStage.clear();
-        addStage.saveAddStage();
-        removeStage.clear();
-        removeStage.saveRemoveStage();
+        stage.clear();
+        Transaction transaction = new Transaction();
+        stage.save(transaction);
 
         currentCommit = commit;
         String currentBranchName = getCurrentBranch();
-        writeContents(join(HEADS_DIR, currentBranchName), currentCommit.getId());
+        transaction.write(join(HEADS_DIR, currentBranchName), currentCommit.getId());
+        transaction.commit();
     }
 
     private static Commit getNewCommit(String message) {
-        Map<String, String> addBlobMap = new HashMap<>();
-        addStage = readAddStage();
-        List<Blob> addBlobList = addStage.getBlobList();
-        for (Blob blob : addBlobList) {
-            addBlobMap.put(blob.getFilePath(), blob.getId());
-        }
-
-        Map<String, String> removeBlobMap = new HashMap<>();
-        removeStage = readRemoveStage();
-        List<Blob> removeBlobList = removeStage.getBlobList();
-        for (Blob blob : removeBlobList) {
-            removeBlobMap.put(blob.getFilePath(), blob.getId());
-        }
+        stage = Stage.read();
+        Map<String, String> addBlobMap = stage.getAdded();
+        Map<String, String> removeBlobMap = stage.getRemoved();
 
         if (addBlobMap.isEmpty() && removeBlobMap.isEmpty()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw new GitletException("No changes added to the commit.");
         }
 
         currentCommit = getCurrentCommit();
-        Map<String, String> blobMap = currentCommit.getFilePathToBlobId();
-        if (!addBlobMap.isEmpty()) {
-            for (String path : addBlobMap.keySet()) {
-                blobMap.put(path, addBlobMap.get(path));
-            }
-        }
-        if (!removeBlobMap.isEmpty()) {
-            for (String path : removeBlobMap.keySet()) {
-                blobMap.remove(path);
-            }
+        Map<String, String> changes = new HashMap<>(addBlobMap);
+        for (String path : removeBlobMap.keySet()) {
+            changes.put(path, null);
         }
 
         List<String> parents = new ArrayList<>();
-        parents.add(getCurrentCommit().getId());
-        return new Commit(message, blobMap, parents);
+        parents.add(currentCommit.getId());
+        return new Commit(message, currentCommit, changes, parents);
     }
 
     public static void rm(String filename) {
         File file = join(CWD, filename);
         String filePath = file.getPath();
-        addStage = readAddStage();
+        stage = Stage.read();
         currentCommit = getCurrentCommit();
 
-        if (addStage.exists(filePath)) {
-            addStage.delete(filePath);
-            addStage.saveAddStage();
+        if (stage.isAdded(filePath)) {
+            stage.unstage(filePath);
+            stage.save();
         } else if (currentCommit.exists(filePath)) {
-            removeStage = readRemoveStage();
-            Blob removeBlob = getBlobByFilePath(filePath, currentCommit);
-            removeStage.add(removeBlob);
-            removeStage.saveRemoveStage();
+            stage.remove(filePath, currentCommit.getFilePathToBlobId().get(filePath));
+            stage.save();
             file.delete();
         } else {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+            throw new GitletException("No reason to remove the file.");
         }
     }
 
-    private static Blob getBlobByFilePath(String filePath, Commit commit) {
-        String blobId = commit.getFilePathToBlobId().get(filePath);
-        return readObject(join(Repository.BLOBS_DIR, blobId), Blob.class);
-    }
-
-    public static void log() {
+    /** Prints the first-parent history of the current branch, newest
+     *  first: at most LIMIT commits (all if LIMIT is negative), stopping at
+     *  the first commit made before SINCE (in seconds since the epoch).  Only
+     *  commits are read, never their trees. */
+    public static void log(long limit, long since) {
         String currentBranchName = getCurrentBranch();
-        String currentCommitId = readContentsAsString(join(HEADS_DIR, currentBranchName));
-        currentCommit = readObject(join(COMMITS_DIR, currentCommitId), Commit.class);
-        while (!currentCommit.getParents().isEmpty()) {
-            if (isMergeCommit(currentCommit)) {
-                printMergeCommit(currentCommit);
-            } else {
-                printCommit(currentCommit);
+        String commitId = readContentsAsString(join(HEADS_DIR, currentBranchName));
+        PrintWriter out = bufferedOutput();
+        for (long shown = 0; commitId != null && shown != limit; shown += 1) {
+            Commit commit = Commit.fromId(commitId);
+            if (since != Long.MIN_VALUE && commit.getTime() < since) {
+                break;
+            }
+            printCommit(out, commit);
+            commitId = commit.getParents().isEmpty() ? null : commit.getParents().get(0);
+        }
+        out.flush();
+    }
+
+    /** Prints the log of the current branch like {@link #log}, but only
+     *  the commits that changed PATH, a file or directory relative to the
+     *  working directory, compared with their first parents.  The history is
+     *  walked in the {@link CommitGraph}, and commits whose changed-path
+     *  filters rule PATH out are skipped without being read; only the others
+     *  have their trees compared along PATH. */
+    public static void log(long limit, long since, String path) {
+        String relative = Paths.get(path).normalize().toString().replace(File.separatorChar, '/');
+        if (relative.isEmpty() || relative.startsWith("/") || relative.startsWith("..")) {
+            throw new GitletException("Incorrect operands.");
+        }
+        CommitGraph graph = CommitGraph.get();
+        String head = readContentsAsString(join(HEADS_DIR, getCurrentBranch()));
+        PrintWriter out = bufferedOutput();
+        long shown = 0;
+        for (int k = graph.position(head); k >= 0 && shown != limit; ) {
+            if (since != Long.MIN_VALUE && graph.time(k) < since) {
+                break;
+            }
+            int[] parents = graph.parents(k);
+            int parent = parents.length == 0 ? -1 : parents[0];
+            if (graph.mayHaveChanged(k, relative)) {
+                Commit commit = Commit.fromId(graph.id(k));
+                String parentTree = parent < 0 ? null
+                        : Commit.fromId(graph.id(parent)).getTreeId();
+                if (!Objects.equals(Tree.lookup(commit.getTreeId(), relative),
+                        Tree.lookup(parentTree, relative))) {
+                    printCommit(out, commit);
+                    shown += 1;
+                }
             }
-            List<String> parentsCommitId = currentCommit.getParents();
-            currentCommit = getCommitById(parentsCommitId.get(0));
+            k = parent;
         }
-        printCommit(currentCommit);
+        out.flush();
+    }
+
+    /** Returns a buffered writer on the standard output, which must be
+     *  flushed when done. */
+    private static PrintWriter bufferedOutput() {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
     }
 
     private static Commit getCommitById(String commitId) {
         if (commitId.length() == UID_LENGTH) {
-            File commitFile = join(COMMITS_DIR, commitId);
-            return !commitFile.exists() ? null : readObject(commitFile, Commit.class);
+            return !ObjectStore.contains(ObjectStore.Type.COMMIT, commitId)
+                    ? null : Commit.fromId(commitId);
         }
-        List<String> objectIdList = plainFilenamesIn(COMMITS_DIR);
-        for (String o : Objects.requireNonNull(objectIdList)) {
-            if (commitId.equals(o.substring(0, commitId.length()))) {
-                return readObject(join(COMMITS_DIR, o), Commit.class);
-            }
+        List<String> matches = CommitIdIndex.matches(commitId, 2);
+        if (matches.removeIf(id -> !ObjectStore.contains(ObjectStore.Type.COMMIT, id))) {
+            // Skip commits the index still lists after gc deleted them, and
+            // look again for a second match among the rest.
+            matches = CommitIdIndex.matches(commitId, Integer.MAX_VALUE);
+            matches.removeIf(id -> !ObjectStore.contains(ObjectStore.Type.COMMIT, id));
         }
-        return null;
-    }
-
-    private static void printCommit(Commit commit) {
-        System.out.println("===");
-        System.out.println("commit " + commit.getId());
-        System.out.println("Date: " + commit.getTimeStamp());
-        System.out.println(commit.getMessage() + "\n");
+        if (matches.size() > 1) {
+            throw new GitletException("Ambiguous commit id; give more of it.");
+        }
+        return matches.isEmpty() ? null : Commit.fromId(matches.get(0));
     }
 
-    private static void printMergeCommit(Commit commit) {
-        System.out.println("===");
-        System.out.println("commit " + commit.getId());
-
-        List<String> parentsCommitId = commit.getParents();
-        String parent1 = parentsCommitId.get(0);
-        String parent2 = parentsCommitId.get(1);
-        System.out.println("Merge: " + parent1.substring(0, 7) + " " + parent2.substring(0, 7));
-
-        System.out.println("Date: " + commit.getTimeStamp());
-        System.out.println(commit.getMessage() + "\n");
+    private static void printCommit(PrintWriter out, Commit commit) {
+        out.println("===");
+        out.println("commit " + commit.getId());
+        if (isMergeCommit(commit)) {
+            List<String> parentsCommitId = commit.getParents();
+            String parent1 = parentsCommitId.get(0);
+            String parent2 = parentsCommitId.get(1);
+            out.println("Merge: " + parent1.substring(0, 7) + " " + parent2.substring(0, 7));
+        }
+        out.println("Date: " + commit.getTimeStamp());
+        out.println(commit.getMessage() + "\n");
     }
 
     private static boolean isMergeCommit(Commit commit) {
         return commit.getParents().size() == 2;
     }
 
-    public static void globalLog() {
-        List<String> commitList = plainFilenamesIn(COMMITS_DIR);
-        for (String id : commitList) {
-            Commit commit = getCommitById(id);
-            if (isMergeCommit(commit)) {
-                printMergeCommit(commit);
-            } else {
-                printCommit(commit);
+    /** Prints every commit ever made, in order of UID, with the same
+     *  LIMIT and SINCE as for log, except that older commits are skipped
+     *  rather than ending the listing. */
+    public static void globalLog(long limit, long since) {
+        PrintWriter out = bufferedOutput();
+        long shown = 0;
+        for (String id : ObjectStore.list(ObjectStore.Type.COMMIT)) {
+            if (shown == limit) {
+                break;
+            }
+            Commit commit = Commit.fromId(id);
+            if (since == Long.MIN_VALUE || commit.getTime() >= since) {
+                printCommit(out, commit);
+                shown += 1;
             }
         }
+        out.flush();
     }
 
+    /** Prints the UIDs of the commits with message MESSAGE, using the
+     *  {@link MessageIndex}. */
     public static void find(String message) {
-        List<String> commitList = plainFilenamesIn(COMMITS_DIR);
-        List<String> idList = new ArrayList<>();
-        for (String id : Objects.requireNonNull(commitList)) {
-            Commit commit = getCommitById(id);
-            if (message.equals(commit.getMessage())) {
-                idList.add(id);
-            }
+        printFound(MessageIndex.find(message));
+    }
+
+    /** Prints the UIDs of the commits whose messages contain all the words
+     *  of WORDS, ignoring case. */
+    public static void findWords(String words) {
+        printFound(MessageIndex.findWords(words));
+    }
+
+    /** Prints the UIDs of the commits with a message in which the regular
+     *  expression REGEX is found. */
+    public static void findPattern(String regex) {
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException excp) {
+            throw new GitletException("Invalid pattern.");
         }
+        printFound(MessageIndex.grep(pattern));
+    }
+
+    private static void printFound(List<String> idList) {
         if (idList.isEmpty()) {
             System.out.println("Found no commit with that message.");
         } else {
@@ -308,7 +337,7 @@ public class Repository {
     }
 
     public static void status() {
-        List<String> branchList = plainFilenamesIn(HEADS_DIR);
+        List<String> branchList = branchNames();
         currentBranch = getCurrentBranch();
         System.out.println("=== Branches ===");
         System.out.println("*" + currentBranch);
@@ -320,63 +349,311 @@ public class Repository {
             }
         }
         System.out.println("\n=== Staged Files ===");
-        addStage = readAddStage();
-        for (Blob blob : addStage.getBlobList()) {
-            System.out.println(blob.getFilename().getName());
+        stage = Stage.read();
+        for (String filename : getSortedFilenames(stage.getAdded())) {
+            System.out.println(filename);
         }
         System.out.println("\n=== Removed Files ===");
-        removeStage = readRemoveStage();
-        for (Blob blob : removeStage.getBlobList()) {
-            System.out.println(blob.getFilename().getName());
+        for (String filename : getSortedFilenames(stage.getRemoved())) {
+            System.out.println(filename);
+        }
+        currentCommit = getCurrentCommit();
+        List<Renames.Rename> renames = getStagedRenames();
+        if (!renames.isEmpty()) {
+            System.out.println("\n=== Renamed Files ===");
+            for (Renames.Rename rename : renames) {
+                System.out.println(new File(rename.from).getName() + " -> "
+                    + new File(rename.to).getName());
+            }
         }
         System.out.println("\n=== Modifications Not Staged For Commit ===");
+        for (String modification : getModificationsNotStaged()) {
+            System.out.println(modification);
+        }
         System.out.println("\n=== Untracked Files ===");
+        for (String filename : getUntrackedFiles()) {
+            System.out.println(filename);
+        }
+        System.out.println();
+        if (!RepositoryLock.isShared()) {
+            StatCache.get().save();
+        }
+    }
+
+    /** Returns the renames of files staged for removal to files staged for
+     *  addition that the current commit does not track (see
+     *  {@link Renames}). */
+    private static List<Renames.Rename> getStagedRenames() {
+        Map<String, String> added = new HashMap<>(stage.getAdded());
+        added.keySet().removeAll(currentCommit.getFilePathToBlobId().keySet());
+        return Renames.detect(stage.getRemoved(), added);
+    }
+
+    /** Returns "NAME (modified)" or "NAME (deleted)", in order of NAME, for
+     *  each file whose working version differs from the version that would
+     *  be committed.  Files are compared by blob id, which the stat cache
+     *  supplies without reading unchanged files. */
+    private static List<String> getModificationsNotStaged() {
+        Map<String, String> tracked = currentCommit.getFilePathToBlobId();
+        Map<String, String> staged = stage.getAdded();
+        Map<String, String> removed = stage.getRemoved();
+        StatCache statCache = StatCache.get();
+        Map<String, String> modifications = new TreeMap<>();
+        for (String path : tracked.keySet()) {
+            File file = new File(path);
+            if (staged.containsKey(path)) {
+                continue;
+            }
+            if (!file.exists()) {
+                if (!removed.containsKey(path)) {
+                    modifications.put(file.getName(), "deleted");
+                }
+            } else if (!statCache.blobId(file).equals(tracked.get(path))) {
+                modifications.put(file.getName(), "modified");
+            }
+        }
+        for (String path : staged.keySet()) {
+            File file = new File(path);
+            if (!file.exists()) {
+                modifications.put(file.getName(), "deleted");
+            } else if (!statCache.blobId(file).equals(staged.get(path))) {
+                modifications.put(file.getName(), "modified");
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, String> entry : modifications.entrySet()) {
+            result.add(entry.getKey() + " (" + entry.getValue() + ")");
+        }
+        return result;
+    }
+
+    /** Returns the names of the files in the working directory that are
+     *  neither tracked nor staged for addition, or are staged for removal. */
+    private static List<String> getUntrackedFiles() {
+        Map<String, String> tracked = currentCommit.getFilePathToBlobId();
+        List<String> untracked = new ArrayList<>();
+        for (String filename : Objects.requireNonNull(plainFilenamesIn(CWD))) {
+            String path = join(CWD, filename).getPath();
+            if ((!tracked.containsKey(path) && !stage.isAdded(path))
+                    || stage.isRemoved(path)) {
+                untracked.add(filename);
+            }
+        }
+        return untracked;
+    }
+
+    private static List<String> getSortedFilenames(Map<String, String> stagedFiles) {
+        List<String> filenames = new ArrayList<>();
+        for (String path : stagedFiles.keySet()) {
+            filenames.add(new File(path).getName());
+        }
+        Collections.sort(filenames);
+        return filenames;
+    }
+
+    /** Prints, as a unified diff, the changes from the commit with id
+     *  FROMID to the one with id TOID.  If TOID is null, the changes are to
+     *  the working versions of the files that would be committed: those
+     *  tracked by the current commit or staged for addition, and not staged
+     *  for removal.  If FROMID is null too, they are from the current
+     *  commit.  Renamed and copied files are shown as such (see
+     *  {@link Renames}). */
+    public static void diff(String fromId, String toId) {
+        currentCommit = getCurrentCommit();
+        Map<String, String> oldFiles = getDiffCommit(fromId).getFilePathToBlobId();
+        Map<String, File> working = new HashMap<>();
+        Map<String, String> newFiles = toId != null
+            ? getDiffCommit(toId).getFilePathToBlobId() : getWorkingFiles(working);
+        Map<String, String> removed = new HashMap<>(oldFiles);
+        removed.keySet().removeAll(newFiles.keySet());
+        Map<String, String> added = new HashMap<>(newFiles);
+        added.keySet().removeAll(oldFiles.keySet());
+        Map<String, String> modified = new HashMap<>();
+        for (Map.Entry<String, String> file : oldFiles.entrySet()) {
+            String newId = newFiles.get(file.getKey());
+            if (newId != null && !newId.equals(file.getValue())) {
+                modified.put(file.getKey(), file.getValue());
+            }
+        }
+        Function<String, byte[]> contents = id -> working.containsKey(id)
+            ? readContents(working.get(id)) : Blob.fromId(id).getContents();
+
+        Map<String, Renames.Rename> changes = new TreeMap<>();
+        for (Renames.Rename rename : Renames.detect(removed, added, modified, contents)) {
+            changes.put(rename.to, rename);
+            removed.remove(rename.from);
+            added.remove(rename.to);
+        }
+        for (String path : removed.keySet()) {
+            changes.put(path, new Renames.Rename(path, null, 0, false));
+        }
+        for (String path : added.keySet()) {
+            changes.put(path, new Renames.Rename(null, path, 0, false));
+        }
+        for (String path : modified.keySet()) {
+            changes.put(path, new Renames.Rename(path, path, 0, false));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Renames.Rename change : changes.values()) {
+            printDiff(out, change, change.from == null ? null : oldFiles.get(change.from),
+                change.to == null ? null : newFiles.get(change.to), contents);
+        }
+        System.out.write(out.toByteArray(), 0, out.size());
+        System.out.flush();
+        if (!RepositoryLock.isShared()) {
+            StatCache.get().save();
+        }
+    }
+
+    /** Returns the commit with id COMMITID, or the current commit if it is
+     *  null. */
+    private static Commit getDiffCommit(String commitId) {
+        Commit commit = commitId == null ? currentCommit : getCommitById(commitId);
+        if (commit == null) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        return commit;
+    }
+
+    /** Returns a map from the path of each file that would be committed, as
+     *  described for {@link #diff}, and present in the working directory,
+     *  to the id its contents would have as a blob.  Records each such file
+     *  in FILES by that id. */
+    private static Map<String, String> getWorkingFiles(Map<String, File> files) {
+        stage = Stage.read();
+        Set<String> paths = new HashSet<>(currentCommit.getFilePathToBlobId().keySet());
+        paths.addAll(stage.getAdded().keySet());
+        paths.removeAll(stage.getRemoved().keySet());
+        StatCache statCache = StatCache.get();
+        Map<String, String> result = new HashMap<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isFile()) {
+                String id = statCache.blobId(file);
+                result.put(path, id);
+                files.put(id, file);
+            }
+        }
+        return result;
+    }
+
+    /** Writes to OUT the diff of CHANGE, a file from path CHANGE.FROM, with
+     *  blob OLDID, to path CHANGE.TO, with blob NEWID, either of which may
+     *  be null.  CONTENTS gives the contents of a blob id. */
+    private static void printDiff(ByteArrayOutputStream out, Renames.Rename change,
+                                  String oldId, String newId,
+                                  Function<String, byte[]> contents) {
+        String from = change.from == null ? null : relativePath(change.from);
+        String to = change.to == null ? null : relativePath(change.to);
+        StringBuilder header = new StringBuilder();
+        header.append("diff --gitlet a/").append(from == null ? to : from)
+            .append(" b/").append(to == null ? from : to).append('\n');
+        if (from == null) {
+            header.append("new file\n");
+        } else if (to == null) {
+            header.append("deleted file\n");
+        } else if (!from.equals(to)) {
+            String kind = change.copy ? "copy" : "rename";
+            header.append("similarity index ").append(change.score).append("%\n")
+                .append(kind).append(" from ").append(from).append('\n')
+                .append(kind).append(" to ").append(to).append('\n');
+        }
+        byte[] hunks = Objects.equals(oldId, newId) ? new byte[0] : Diff.unified(
+            oldId == null ? new byte[0] : contents.apply(oldId),
+            newId == null ? new byte[0] : contents.apply(newId));
+        if (hunks == null) {
+            header.append("Binary files ").append(from == null ? "/dev/null" : "a/" + from)
+                .append(" and ").append(to == null ? "/dev/null" : "b/" + to)
+                .append(" differ\n");
+        } else if (hunks.length > 0) {
+            header.append("--- ").append(from == null ? "/dev/null" : "a/" + from)
+                .append("\n+++ ").append(to == null ? "/dev/null" : "b/" + to).append('\n');
+        }
+        out.writeBytes(header.toString().getBytes(StandardCharsets.UTF_8));
+        if (hunks != null) {
+            out.writeBytes(hunks);
+        }
+    }
+
+    /** Returns absolute PATH relative to the working directory, with '/'
+     *  between its components. */
+    private static String relativePath(String path) {
+        return CWD.toPath().relativize(Paths.get(path)).toString()
+            .replace(File.separatorChar, '/');
     }
 
     public static void checkoutBranch(String branch) {
         currentBranch = getCurrentBranch();
         if (branch.equals(currentBranch)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw new GitletException("No need to checkout the current branch.");
         }
-        List<String> branchList = plainFilenamesIn(HEADS_DIR);
+        List<String> branchList = branchNames();
         if (!branchList.contains(branch)) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw new GitletException("No such branch exists.");
         }
 
         currentCommit = getCurrentCommit();
         Commit newCommit = getCommitByBranchName(branch);
-        changeCommitTo(newCommit);
-        writeContents(HEAD_FILE, branch);
-    }
-
-    private static void changeCommitTo(Commit newCommit) {
-        List<String> onlyCurrCommitTracked = findOnlyCurrCommitTracked(newCommit);
-        List<String> bothCommitTracked = findBothCommitTracked(newCommit);
-        List<String> onlyNewCommitTracked = findOnlyNewCommitTracked(newCommit);
+        Transaction transaction = new Transaction();
+        changeCommitTo(newCommit, transaction);
+        transaction.write(HEAD_FILE, branch);
+        transaction.commit();
+    }
+
+    /** Replaces the files of the current commit in the working directory
+     *  with those of NEWCOMMIT.  Only files whose blobs differ between the two
+     *  commits, or whose working copies no longer match the current commit,
+     *  are written.  The staging area is cleared as part of TRANSACTION. */
+    private static void changeCommitTo(Commit newCommit, Transaction transaction) {
+        List<String> onlyCurrCommitTracked = new ArrayList<>();
+        List<String> bothCommitTracked = new ArrayList<>();
+        List<String> onlyNewCommitTracked = new ArrayList<>();
+        Map<String, String[]> changed = currentCommit.diff(newCommit);
+        for (Map.Entry<String, String[]> entry : changed.entrySet()) {
+            String filename = new File(entry.getKey()).getName();
+            if (entry.getValue()[1] == null) {
+                onlyCurrCommitTracked.add(filename);
+            } else if (entry.getValue()[0] == null) {
+                onlyNewCommitTracked.add(filename);
+            } else {
+                bothCommitTracked.add(filename);
+            }
+        }
+        StatCache statCache = StatCache.get();
+        for (Map.Entry<String, String> entry : newCommit.getFilePathToBlobId().entrySet()) {
+            File file = new File(entry.getKey());
+            if (!changed.containsKey(entry.getKey())
+                    && (!file.isFile() || !entry.getValue().equals(statCache.blobId(file)))) {
+                bothCommitTracked.add(file.getName());
+            }
+        }
         deleteFiles(onlyCurrCommitTracked);
         overwriteFiles(bothCommitTracked, newCommit);
         writeFiles(onlyNewCommitTracked, newCommit);
-        clearAllStage();
+        clearAllStage(transaction);
+        statCache.save();
     }
 
-    private static void clearAllStage() {
-        addStage = readAddStage();
-        addStage.clear();
-        addStage.saveAddStage();
-        removeStage = readRemoveStage();
-        removeStage.clear();
-        removeStage.saveRemoveStage();
+    private static void clearAllStage(Transaction transaction) {
+        stage = Stage.read();
+        stage.clear();
+        stage.save(transaction);
     }
 
     private static void overwriteFiles(List<String> bothCommitTracked, Commit newCommit) {
         if (bothCommitTracked.isEmpty()) {
             return;
         }
+        List<Blob> blobs = new ArrayList<>();
+        List<Runnable> tasks = new ArrayList<>();
         for (String fileName : bothCommitTracked) {
             Blob blob = newCommit.getBlobByFilename(fileName);
-            writeBlob(blob);
+            blobs.add(blob);
+            tasks.add(() -> blob.writeTo(join(CWD, fileName)));
+        }
+        runInParallel(tasks);
+        for (int i = 0; i < blobs.size(); i += 1) {
+            StatCache.get().update(join(CWD, bothCommitTracked.get(i)), blobs.get(i).getId());
         }
     }
 
@@ -384,61 +661,54 @@ public class Repository {
         if (onlyNewCommitTracked.isEmpty()) {
             return;
         }
-        for (String fileName : onlyNewCommitTracked) {
-            File file = join(CWD, fileName);
-            if (file.exists()) {
-                System.out.println("There is an untracked file in the way; delete it, "
-                        + "or add and commit it first.");
-                System.exit(0);
+        checkNotInTheWay(onlyNewCommitTracked);
+        overwriteFiles(onlyNewCommitTracked, newCommit);
+    }
+
+    /** Refuses to go on if any of FILENAMES, which the current commit does
+     *  not track, is in the working directory, where it would be
+     *  overwritten. */
+    private static void checkNotInTheWay(List<String> fileNames) {
+        for (String fileName : fileNames) {
+            if (join(CWD, fileName).exists()) {
+                throw new GitletException("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
             }
         }
-        overwriteFiles(onlyNewCommitTracked, newCommit);
     }
 
-    private static void writeBlob(Blob blob) {
-        File fileName = join(CWD, blob.getFilename().getName());
-        byte[] bytes = blob.getContents();
-        writeContents(fileName, new String(bytes, StandardCharsets.UTF_8));
+    private static void writeBlob(String filename, Blob blob) {
+        File file = join(CWD, filename);
+        blob.writeTo(file);
+        StatCache.get().update(file, blob.getId());
     }
 
     private static void deleteFiles(List<String> onlyCurrCommitTracked) {
         if (onlyCurrCommitTracked.isEmpty()) {
             return;
         }
+        List<Runnable> tasks = new ArrayList<>();
         for (String filename : onlyCurrCommitTracked) {
-            File file = join(CWD, filename);
-            restrictedDelete(file);
+            tasks.add(() -> restrictedDelete(join(CWD, filename)));
         }
-    }
-
-    private static List<String> findOnlyNewCommitTracked(Commit newCommit) {
-        List<String> currCommitFiles = currentCommit.getFilenameList();
-        List<String> onlyNewCommitTracked = newCommit.getFilenameList();
-        for (String s : currCommitFiles) {
-            onlyNewCommitTracked.remove(s);
+        runInParallel(tasks);
+        for (String filename : onlyCurrCommitTracked) {
+            StatCache.get().remove(join(CWD, filename).getPath());
         }
-        return onlyNewCommitTracked;
     }
 
-    private static List<String> findBothCommitTracked(Commit newCommit) {
-        List<String> newCommitFiles = newCommit.getFilenameList();
-        List<String> currCommitFiles = currentCommit.getFilenameList();
-        List<String> bothCommitTracked = new ArrayList<>();
-        for (String s : newCommitFiles) {
-            if (currCommitFiles.contains(s)) {
-                bothCommitTracked.add(s);
+    /** Returns the names of all branches, sorted: those in HEADS_DIR and,
+     *  as REMOTE/BRANCH, those fetched from remotes (see {@link Remote}). */
+    static List<String> branchNames() {
+        List<String> names = new ArrayList<>(plainFilenamesIn(HEADS_DIR));
+        File[] remotes = HEADS_DIR.listFiles(File::isDirectory);
+        for (File remote : remotes == null ? new File[0] : remotes) {
+            for (String branch : plainFilenamesIn(remote)) {
+                names.add(remote.getName() + "/" + branch);
             }
         }
-        return bothCommitTracked;
-    }
-
-    private static List<String> findOnlyCurrCommitTracked(Commit newCommit) {
-        List<String> newCommitFiles = newCommit.getFilenameList();
-        List<String> onlyCurrCommitTracked = currentCommit.getFilenameList();
-        for (String s : newCommitFiles) {
-            onlyCurrCommitTracked.remove(s);
-        }
-        return onlyCurrCommitTracked;
+        Collections.sort(names);
+        return names;
     }
 
     private static Commit getCommitByBranchName(String branch) {
@@ -452,316 +722,256 @@ public class Repository {
         List<String> filenameList = currCommmit.getFilenameList();
         if (filenameList.contains(filename)) {
             Blob blob = currCommmit.getBlobByFilename(filename);
-            writeBlob(blob);
+            writeBlob(filename, blob);
+            StatCache.get().save();
         } else {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw new GitletException("File does not exist in that commit.");
         }
     }
 
     public static void checkout(String commitId, String filename) {
         Commit commit = getCommitById(commitId);
         if (commit == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw new GitletException("No commit with that id exists.");
         }
         List<String> filenameList = commit.getFilenameList();
         if (filenameList.contains(filename)) {
             Blob blob = commit.getBlobByFilename(filename);
-            writeBlob(blob);
+            writeBlob(filename, blob);
+            StatCache.get().save();
         } else {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw new GitletException("File does not exist in that commit.");
         }
     }
 
     public static void branch(String branch) {
-        List<String> branchList = plainFilenamesIn(HEADS_DIR);
+        List<String> branchList = branchNames();
         if (branchList.contains(branch)) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw new GitletException("A branch with that name already exists.");
         }
         File newBranchFile = join(HEADS_DIR, branch);
         currentCommit = getCurrentCommit();
-        writeContents(newBranchFile, currentCommit.getId());
+        Transaction transaction = new Transaction();
+        transaction.write(newBranchFile, currentCommit.getId());
+        transaction.commit();
     }
 
     public static void rmBranch(String branch) {
         currentBranch = getCurrentBranch();
         if (currentBranch.equals(branch)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw new GitletException("Cannot remove the current branch.");
         }
-        List<String> branchList = plainFilenamesIn(HEADS_DIR);
+        List<String> branchList = branchNames();
         if (!branchList.contains(branch)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw new GitletException("A branch with that name does not exist.");
         }
         File filename = join(HEADS_DIR, branch);
         if (!filename.isDirectory()) {
-            filename.delete();
+            Transaction transaction = new Transaction();
+            transaction.delete(filename);
+            transaction.commit();
         }
     }
 
     public static void reset(String commitId) {
         Commit commit = getCommitById(commitId);
         if (commit == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw new GitletException("No commit with that id exists.");
         }
         currentCommit = getCurrentCommit();
         Commit newCommit = getCommitById(commitId);
-        changeCommitTo(newCommit);
+        Transaction transaction = new Transaction();
+        changeCommitTo(newCommit, transaction);
 
         currentBranch = readContentsAsString(HEAD_FILE);
         File branchFile = join(HEADS_DIR, currentBranch);
-        writeContents(branchFile, commitId);
+        transaction.write(branchFile, newCommit.getId());
+        transaction.commit();
+    }
+
+    /** Removes unreachable objects and repacks the rest; see
+     *  {@link GarbageCollector}. */
+    public static void gc() {
+        GarbageCollector.collect();
+        CommitGraph.get().writeMissingFilters();
+    }
+
+    /** Works on a garbage collection for at most about BUDGET milliseconds,
+     *  continuing the one under way if there is one. */
+    public static void gc(long budget) {
+        if (GarbageCollector.step(budget)) {
+            CommitGraph.get().writeMissingFilters();
+        }
     }
 
     public static void merge(String mergedBranch) {
         currentBranch = getCurrentBranch();
-        addStage = readAddStage();
-        removeStage = readRemoveStage();
-        if (!(addStage.isEmpty() && removeStage.isEmpty())) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+        stage = Stage.read();
+        if (!stage.isEmpty()) {
+            throw new GitletException("You have uncommitted changes.");
         }
-        List<String> branchList = plainFilenamesIn(HEADS_DIR);
+        List<String> branchList = branchNames();
         if (!branchList.contains(mergedBranch)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw new GitletException("A branch with that name does not exist.");
         }
         if (currentBranch.equals(mergedBranch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw new GitletException("Cannot merge a branch with itself.");
         }
 
         currentCommit = getCurrentCommit();
         Commit mergedCommit = getCommitByBranchName(mergedBranch);
         Commit splitPoint = findSplitPoint(currentCommit, mergedCommit);
         if (splitPoint.getId().equals(mergedCommit.getId())) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            throw new GitletException("Given branch is an ancestor of the current branch.");
         }
         if (splitPoint.getId().equals(currentCommit.getId())) {
+            Transaction transaction = new Transaction();
+            changeCommitTo(mergedCommit, transaction);
+            transaction.write(join(HEADS_DIR, currentBranch), mergedCommit.getId());
+            transaction.commit();
             System.out.println("Current branch fast-forwarded.");
-            checkoutBranch(mergedBranch);
+            return;
         }
-        Map<String, String> currCommitBlobs = currentCommit.getFilePathToBlobId();
-
         String message = "Merged " + mergedBranch + " into " + currentBranch + ".";
-        String currentBranchCommitId = getCommitByBranchName(currentBranch).getId();
-        String mergeBranchCommitId = getCommitByBranchName(mergedBranch).getId();
         List<String> parents = new ArrayList<>();
-        parents.add(currentBranchCommitId);
-        parents.add(mergeBranchCommitId);
-        Commit newCommit = new Commit(message, currCommitBlobs, parents);
-
-        Commit mergeCommit = mergeFilesToNewCommit(splitPoint, newCommit, mergedCommit);
-        saveNewCommit(mergeCommit);
-    }
-
-    private static Commit mergeFilesToNewCommit(Commit splitPoint, Commit newCommit,
-                                                Commit mergedCommit) {
-        Set<String> fileSet = new HashSet<>();
-        fileSet.addAll(splitPoint.getBlobIdList());
-        fileSet.addAll(newCommit.getBlobIdList());
-        fileSet.addAll(mergedCommit.getBlobIdList());
-        List<String> fileList = new ArrayList<>(fileSet);
-        /*
-         * case 1 5 6: write mergeCommit files into newCommit
-         * case 1: overwrite files
-         * case 5: write files
-         * case 6: delete files
-         */
-        List<String> overwriteFileList =
-                computeOverwriteFiles(splitPoint, newCommit, mergedCommit);
-        List<String> writeFileList =
-                computeWriteFiles(splitPoint, newCommit, mergedCommit);
-        List<String> deleteFileList =
-                computeDeleteFiles(splitPoint, newCommit, mergedCommit);
-
-        overwriteFiles(changeBlobIdListToFilenameList(overwriteFileList), mergedCommit);
-        writeFiles(changeBlobIdListToFilenameList(writeFileList), mergedCommit);
-        deleteFiles(changeBlobIdListToFilenameList(deleteFileList));
-
-        /* * case 3-1: deal conflict */
-        checkIfConflict(fileList, splitPoint, newCommit, mergedCommit);
-
-        /* * case 2 4 7 3-1: do nothing */
-
-        return computeMergedCommit(newCommit, overwriteFileList, writeFileList, deleteFileList);
-    }
-
-    private static Commit computeMergedCommit(Commit newCommit, List<String> overwriteFileList,
-                                              List<String> writeFileList,
-                                              List<String> deleteFileList) {
-        Map<String, String> mergedCommitBlobs = newCommit.getFilePathToBlobId();
-        if (!overwriteFileList.isEmpty()) {
-            for (String blobID : overwriteFileList) {
-                Blob blob = readObject(join(BLOBS_DIR, blobID), Blob.class);
-                mergedCommitBlobs.put(blob.getFilePath(), blobID);
+        parents.add(currentCommit.getId());
+        parents.add(mergedCommit.getId());
+        Map<String, String> changes = mergeFiles(splitPoint, currentCommit, mergedCommit);
+        saveNewCommit(new Commit(message, currentCommit, changes, parents));
+        StatCache.get().save();
+    }
+
+    /** Brings the changes made in MERGEDCOMMIT since SPLITPOINT into the
+     *  working directory, which holds NEWCOMMIT, and returns them as changes
+     *  to NEWCOMMIT (path to new blob id, or null for removed files).
+     *
+     *  Only files the given branch changed matter, so both branches are
+     *  compared with the split point by tree, skipping unchanged directories.
+     *  A file changed in the given branch alone is taken from it; one changed
+     *  the same way in both is left alone; one changed differently in both
+     *  is merged line by line, and may be in conflict.
+     *
+     *  A file renamed in one branch and changed in place in the other is
+     *  merged line by line too, at its new path (see {@link Renames}).
+     *  Nothing is changed if an untracked file is where any file would be
+     *  written. */
+    private static Map<String, String> mergeFiles(Commit splitPoint, Commit newCommit,
+                                                  Commit mergedCommit) {
+        Map<String, String[]> currChanges = splitPoint.diff(newCommit);
+        Map<String, String[]> givenChanges = splitPoint.diff(mergedCommit);
+        List<String> overwriteFileList = new ArrayList<>();
+        List<String> writeFileList = new ArrayList<>();
+        List<String> deleteFileList = new ArrayList<>();
+        Map<String, String[]> conflictFiles = new HashMap<>();
+        Map<String, String> changes = new HashMap<>();
+        Set<String> done = new HashSet<>();
+        for (Renames.Rename rename : renames(givenChanges)) {
+            String[] curr = currChanges.get(rename.from);
+            if (curr != null && curr[1] != null && !currChanges.containsKey(rename.to)) {
+                conflictFiles.put(rename.to, new String[] {curr[0], curr[1],
+                    givenChanges.get(rename.to)[1]});
+                deleteFileList.add(rename.from);
+                changes.put(rename.from, null);
+                done.add(rename.from);
+                done.add(rename.to);
             }
         }
-        if (!writeFileList.isEmpty()) {
-            for (String blobID : writeFileList) {
-                Blob blob = readObject(join(BLOBS_DIR, blobID), Blob.class);
-                mergedCommitBlobs.put(blob.getFilePath(), blobID);
+        for (Renames.Rename rename : renames(currChanges)) {
+            String[] given = givenChanges.get(rename.from);
+            if (given != null && given[1] != null && !givenChanges.containsKey(rename.to)) {
+                conflictFiles.put(rename.to, new String[] {given[0],
+                    currChanges.get(rename.to)[1], given[1]});
+                done.add(rename.from);
             }
         }
-        if (!deleteFileList.isEmpty()) {
-            for (String blobID : overwriteFileList) {
-                Blob blob = readObject(join(BLOBS_DIR, blobID), Blob.class);
-                mergedCommitBlobs.remove(blob.getFilePath());
+        for (Map.Entry<String, String[]> entry : givenChanges.entrySet()) {
+            String path = entry.getKey();
+            String givenBlobId = entry.getValue()[1];
+            if (done.contains(path)) {
+                continue;
+            } else if (!currChanges.containsKey(path)) {
+                if (givenBlobId == null) {
+                    deleteFileList.add(path);
+                } else if (entry.getValue()[0] == null) {
+                    writeFileList.add(path);
+                } else {
+                    overwriteFileList.add(path);
+                }
+                changes.put(path, givenBlobId);
+            } else if (!Objects.equals(currChanges.get(path)[1], givenBlobId)) {
+                conflictFiles.put(path, new String[] {entry.getValue()[0],
+                    currChanges.get(path)[1], givenBlobId});
             }
         }
-        return new Commit(newCommit.getMessage(), mergedCommitBlobs, newCommit.getParents());
-    }
-
-    private static void checkIfConflict(List<String> fileList, Commit splitPoint,
-                                        Commit newCommit, Commit mergedCommit) {
-        Map<String, String> splitPointMap = splitPoint.getFilePathToBlobId();
-        Map<String, String> newCommitMap = newCommit.getFilePathToBlobId();
-        Map<String, String> mergeCommitMap = mergedCommit.getFilePathToBlobId();
 
-        boolean conflict = false;
-        for (String blobID : fileList) {
-            String path = readObject(join(BLOBS_DIR, blobID), Blob.class).getFilePath();
-            int commonPath = 0;
-            if (splitPointMap.containsKey(path)) {
-                commonPath += 1;
-            }
-            if (newCommitMap.containsKey(path)) {
-                commonPath += 2;
-            }
-            if (mergeCommitMap.containsKey(path)) {
-                commonPath += 4;
-            }
-            if ((commonPath == 3 && (!splitPointMap.get(path).equals(newCommitMap.get(path))))
-                    || (commonPath == 5
-                        && (!splitPointMap.get(path).equals(mergeCommitMap.get(path))))
-                    || (commonPath == 6
-                        && (!newCommitMap.get(path).equals(mergeCommitMap.get(path))))
-                    || (commonPath == 7
-                        && (!splitPointMap.get(path).equals(newCommitMap.get(path)))
-                        && (!splitPointMap.get(path).equals(mergeCommitMap.get(path)))
-                        && (!newCommitMap.get(path).equals(mergeCommitMap.get(path))))) {
-                conflict = true;
-                String currBranchContents = "";
-                if (newCommitMap.containsKey(path)) {
-                    Blob newCommitBlob = readObject(
-                            join(BLOBS_DIR, newCommitMap.get(path)), Blob.class);
-                    currBranchContents = new String(newCommitBlob.getContents(),
-                            StandardCharsets.UTF_8);
-                }
-
-                String givenBranchContents = "";
-                if (mergeCommitMap.containsKey(path)) {
-                    Blob mergeCommitBlob = readObject(
-                            join(BLOBS_DIR, mergeCommitMap.get(path)), Blob.class);
-                    givenBranchContents = new String(mergeCommitBlob.getContents(),
-                            StandardCharsets.UTF_8);
-                }
-
-                String conflictContents = "<<<<<<< HEAD\n" + currBranchContents + "=======\n"
-                        + givenBranchContents + ">>>>>>>\n";
-                String fileName = readObject(join(BLOBS_DIR, blobID), Blob.class)
-                        .getFilename().getName();
-                File conflictFile = join(CWD, fileName);
-                writeContents(conflictFile, conflictContents);
+        List<String> untrackedConflicts = new ArrayList<>();
+        for (String path : conflictFiles.keySet()) {
+            if (!newCommit.exists(path)) {
+                untrackedConflicts.add(path);
             }
         }
-        if (conflict) {
-            System.out.println("Encountered a merge conflict.");
+        checkNotInTheWay(changeFilePathListToFilenameList(untrackedConflicts));
+        writeFiles(changeFilePathListToFilenameList(writeFileList), mergedCommit);
+        overwriteFiles(changeFilePathListToFilenameList(overwriteFileList), mergedCommit);
+        deleteFiles(changeFilePathListToFilenameList(deleteFileList));
+        changes.putAll(writeConflicts(conflictFiles));
+        return changes;
+    }
+
+    /** Returns the renames among CHANGES, a split-point diff as returned by
+     *  {@link Commit#diff}. */
+    private static List<Renames.Rename> renames(Map<String, String[]> changes) {
+        Map<String, String> removed = new HashMap<>(), added = new HashMap<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (change.getValue()[1] == null) {
+                removed.put(change.getKey(), change.getValue()[0]);
+            } else if (change.getValue()[0] == null) {
+                added.put(change.getKey(), change.getValue()[1]);
+            }
         }
+        return Renames.detect(removed, added);
     }
 
-    private static List<String> changeBlobIdListToFilenameList(List<String> blobIdList) {
-        List<String> fileNameList = new ArrayList<>();
-        for (String id : blobIdList) {
-            Blob blob = readObject(join(BLOBS_DIR, id), Blob.class);
-            fileNameList.add(blob.getFilename().getName());
+    /** Merges, line by line, every file in CONFLICTFILES, which both
+     *  branches changed, and returns a map from the path of each such file
+     *  to the blob of its new contents.  CONFLICTFILES maps each path to the
+     *  blob ids of its versions in the split point, the current branch and
+     *  the given branch (see {@link Diff#merge}).  Regions changed
+     *  differently in both are written between conflict markers. */
+    private static Map<String, String> writeConflicts(Map<String, String[]> conflictFiles) {
+        Map<String, String> merged = new HashMap<>();
+        boolean conflict = false;
+        for (Map.Entry<String, String[]> entry : conflictFiles.entrySet()) {
+            String[] versions = entry.getValue();
+            Diff.Merge merge = Diff.merge(blobContents(versions[0]),
+                    blobContents(versions[1]), blobContents(versions[2]));
+            conflict |= merge.conflicts > 0;
+            File conflictFile = join(CWD, new File(entry.getKey()).getName());
+            writeContents(conflictFile, merge.contents);
+            Blob conflictBlob = Blob.fromFile(conflictFile);
+            merged.put(entry.getKey(), conflictBlob.getId());
         }
-        return fileNameList;
-    }
-
-    private static List<String> computeDeleteFiles(Commit splitPoint, Commit newCommit,
-                                                   Commit mergeCommit) {
-        Map<String, String> splitPointMap = splitPoint.getFilePathToBlobId();
-        Map<String, String> newCommitMap = newCommit.getFilePathToBlobId();
-        Map<String, String> mergeCommitMap = mergeCommit.getFilePathToBlobId();
-        List<String> deleteFiles = new ArrayList<>();
-        for (String path : splitPointMap.keySet()) {
-            if (newCommitMap.containsKey(path) && (!mergeCommitMap.containsKey(path))) {
-                deleteFiles.add(newCommitMap.get(path));
-            }
+        if (conflict) {
+            System.out.println("Encountered a merge conflict.");
         }
-        return deleteFiles;
+        return merged;
     }
 
-
-    private static List<String> computeWriteFiles(Commit splitPoint, Commit newCommit,
-                                                  Commit mergeCommit) {
-        Map<String, String> splitPointMap = splitPoint.getFilePathToBlobId();
-        Map<String, String> newCommitMap = newCommit.getFilePathToBlobId();
-        Map<String, String> mergeCommitMap = mergeCommit.getFilePathToBlobId();
-        List<String> writeFiles = new ArrayList<>();
-        for (String path : mergeCommitMap.keySet()) {
-            if ((!splitPointMap.containsKey(path)) && (!newCommitMap.containsKey(path))) {
-                writeFiles.add(mergeCommitMap.get(path));
-            }
-        }
-        return writeFiles;
+    /** Returns the contents of the blob with id BLOBID, or none if it is
+     *  null. */
+    private static byte[] blobContents(String blobId) {
+        return blobId == null ? new byte[0] : Blob.fromId(blobId).getContents();
     }
 
-    private static List<String> computeOverwriteFiles(Commit splitPoint, Commit newCommit,
-                                                      Commit mergedCommit) {
-        Map<String, String> splitPointMap = splitPoint.getFilePathToBlobId();
-        Map<String, String> newCommitMap = newCommit.getFilePathToBlobId();
-        Map<String, String> mergeCommitMap = mergedCommit.getFilePathToBlobId();
-        List<String> overwriteFiles = new ArrayList<>();
-        for (String path : splitPointMap.keySet()) {
-            if (newCommitMap.containsKey(path) && mergeCommitMap.containsKey(path)) {
-                if ((splitPointMap.get(path).equals(newCommitMap.get(path)))
-                        && (!splitPointMap.get(path).equals(mergeCommitMap.get(path)))) {
-                    overwriteFiles.add(mergeCommitMap.get(path));
-                }
-            }
+    private static List<String> changeFilePathListToFilenameList(List<String> filePathList) {
+        List<String> fileNameList = new ArrayList<>();
+        for (String path : filePathList) {
+            fileNameList.add(new File(path).getName());
         }
-        return overwriteFiles;
+        return fileNameList;
     }
 
     private static Commit findSplitPoint(Commit first, Commit second) {
-        Map<String, Integer> firstIdToLength = computeCommitMap(first, 0);
-        Map<String, Integer> secondIdToLength = computeCommitMap(second, 0);
-        return computeSplitPoint(firstIdToLength, secondIdToLength);
-    }
-
-    private static Commit computeSplitPoint(Map<String, Integer> first,
-                                             Map<String, Integer> second) {
-        int minLength = Integer.MAX_VALUE;
-        String minId = "";
-        for (String id : first.keySet()) {
-            if (second.containsKey(id) && second.get(id) < minLength) {
-                minId = id;
-                minLength = second.get(id);
-            }
-        }
-        return getCommitById(minId);
-    }
-
-    private static Map<String, Integer> computeCommitMap(Commit commit, int length) {
-        Map<String, Integer> map = new HashMap<>();
-        if (commit.getParents().isEmpty()) {
-            map.put(commit.getId(), length);
-            return map;
-        }
-        map.put(commit.getId(), length);
-        length++;
-        for (String id : commit.getParents()) {
-            Commit parent = getCommitById(id);
-            map.putAll(computeCommitMap(parent, length));
-        }
-        return map;
+        return getCommitById(CommitGraph.get().mergeBase(first.getId(), second.getId()));
     }
 }
@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** A lock on a whole repository, held for the length of one command, so
+ *  that gitlet processes sharing a repository do not interfere.
+ *
+ *  Commands that only read the repository take a shared lock on
+ *  .gitlet/lock and so run alongside each other; commands that change it
+ *  take an exclusive one, and so wait for every other command to finish
+ *  and make the others wait in turn.  The locks are operating-system
+ *  file locks (FileChannel.lock), which are released when their process
+ *  dies, so a crashed command never leaves the repository locked.  Holding
+ *  the exclusive lock, a command first completes or discards the work of
+ *  any that crashed (see {@link Transaction#recover}).
+ *
+ *  A command holding a shared lock changes nothing in the repository: it
+ *  leaves the stat cache unsaved, and before it writes anything else, such
+ *  as an index it finds missing, or before it reads a repository whose
+ *  last transaction was cut short, it trades its lock for the exclusive one
+ *  (see {@link #upgrade}).
+ *
+ *  @author
+ */
+class RepositoryLock implements AutoCloseable {
+
+    /** The file locked. */
+    static final File LOCK_FILE = join(Repository.GITLET_DIR, "lock");
+
+    /** Commands that only read the repository. */
+    private static final Set<String> READ_ONLY =
+        Set.of("log", "global-log", "find", "status", "diff", "push", "upload-pack");
+
+    /** The lock held by the command running, if any. */
+    private static RepositoryLock held;
+
+    private final FileChannel channel;
+    private FileLock lock;
+    private boolean shared;
+
+    private RepositoryLock(boolean shared) {
+        this.shared = shared;
+        try {
+            channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            lock = channel.lock(0, Long.MAX_VALUE, shared);
+        } catch (IOException excp) {
+            close();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the lock COMMAND must hold, once it has been acquired, or
+     *  null if COMMAND needs none: when it runs outside a repository, or is
+     *  init or daemon, which hold none while they run. */
+    static RepositoryLock acquire(String command) {
+        if (command.equals("init") || command.equals("daemon")
+                || !Repository.GITLET_DIR.isDirectory()) {
+            return null;
+        }
+        RepositoryLock result = new RepositoryLock(READ_ONLY.contains(command));
+        try {
+            if (!result.shared || Transaction.JOURNAL_FILE.isFile()) {
+                result.makeExclusive();
+            }
+        } catch (RuntimeException excp) {
+            result.close();
+            throw excp;
+        }
+        held = result;
+        return result;
+    }
+
+    /** Makes the command running, if it holds a shared lock, hold the
+     *  exclusive one instead, so that it may change the repository.  The
+     *  shared lock is released first, since two commands upgrading at once
+     *  would otherwise wait for each other, so other commands may run in
+     *  between. */
+    static void upgrade() {
+        if (held != null && held.shared) {
+            held.makeExclusive();
+        }
+    }
+
+    /** Returns true iff the command running holds a shared lock, and so
+     *  may not write to the repository without calling {@link #upgrade}. */
+    static boolean isShared() {
+        return held != null && held.shared;
+    }
+
+    /** Takes the exclusive lock in place of a shared one, and completes or
+     *  discards the work of any command that crashed. */
+    private void makeExclusive() {
+        if (shared) {
+            try {
+                lock.release();
+                lock = channel.lock(0, Long.MAX_VALUE, false);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            shared = false;
+        }
+        Transaction.recover();
+    }
+
+    /** Returns true iff this lock keeps every other command out. */
+    boolean isExclusive() {
+        return !shared;
+    }
+
+    /** Releases this lock. */
+    @Override
+    public void close() {
+        if (held == this) {
+            held = null;
+        }
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
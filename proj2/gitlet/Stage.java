@@ -1,70 +1,228 @@
 package gitlet;
 
-import java.io.Serializable;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class Stage implements Serializable {
-
-    private final Map<String, String> filenameToBlobId;
+import static gitlet.Utils.*;
+
+/** The staging area: files staged for addition and files staged for
+ *  removal, kept together in one index.
+ *
+ *  .gitlet/stage is an 8-byte header (magic, version) followed by a journal
+ *  of records
+ *
+ *      flag (1) | path length (2) | path (UTF-8) | blob id (20)
+ *
+ *  where the flag is ADDED, REMOVED or UNSTAGED.  Reading the index is one
+ *  sequential pass in which later records for a path override earlier ones.
+ *  Staging or unstaging a file appends a single record instead of rewriting
+ *  the file, which is rewritten only when cleared or when superseded records
+ *  outnumber live ones.
+ *
+ *  A record cut short by a crash while it was appended is ignored, and the
+ *  index rewritten at the next save.  Rewrites, and appends to a stage
+ *  that refers to new blobs, go through a {@link Transaction}.
+ *
+ *  The two Java-serialized files that earlier versions kept instead,
+ *  add_stage and remove_stage, are read if there is no index yet and
+ *  removed once it is written.
+ */
+public class Stage {
+
+    /** The index file. */
+    static final File STAGE_FILE = join(Repository.GITLET_DIR, "stage");
+
+    /** Header of STAGE_FILE: "GSTG" and the format version. */
+    private static final int MAGIC = 0x47535447, VERSION = 1;
+
+    private static final int HEADER_LENGTH = 8;
+
+    /** Record flags. */
+    private static final byte UNSTAGED = 0, ADDED = 1, REMOVED = 2;
+
+    private final Map<String, String> added = new HashMap<>();
+
+    private final Map<String, String> removed = new HashMap<>();
+
+    /** Records in STAGE_FILE, and records not yet appended to it. */
+    private int records;
+    private final List<byte[]> pending = new ArrayList<>();
+
+    /** True iff STAGE_FILE must be rewritten rather than appended to. */
+    private boolean rewrite;
+
+    /** Returns the staging area stored in STAGE_FILE. */
+    public static Stage read() {
+        Stage stage = new Stage();
+        if (!STAGE_FILE.isFile()) {
+            for (Map.Entry<String, String> e
+                    : Legacy.readStage(Legacy.ADD_STAGE_FILE).entrySet()) {
+                stage.apply(ADDED, e.getKey(), e.getValue());
+            }
+            for (Map.Entry<String, String> e
+                    : Legacy.readStage(Legacy.REMOVE_STAGE_FILE).entrySet()) {
+                stage.apply(REMOVED, e.getKey(), e.getValue());
+            }
+            stage.rewrite = true;
+            return stage;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(readContents(STAGE_FILE));
+        if (buf.remaining() < HEADER_LENGTH || buf.getInt() != MAGIC
+                || buf.getInt() != VERSION) {
+            throw error("Corrupt staging area.");
+        }
+        byte[] id = new byte[UID_LENGTH / 2];
+        try {
+            while (buf.hasRemaining()) {
+                byte flag = buf.get();
+                byte[] path = new byte[buf.getShort() & 0xffff];
+                buf.get(path);
+                buf.get(id);
+                stage.apply(flag, new String(path, StandardCharsets.UTF_8), bytesToHex(id));
+                stage.records += 1;
+            }
+        } catch (BufferUnderflowException excp) {
+            stage.rewrite = true;
+        }
+        return stage;
+    }
 
-    public Stage() {
-        this.filenameToBlobId = new HashMap<>();
+    private void apply(byte flag, String path, String blobId) {
+        added.remove(path);
+        removed.remove(path);
+        if (flag == ADDED) {
+            added.put(path, blobId);
+        } else if (flag == REMOVED) {
+            removed.put(path, blobId);
+        }
     }
 
-    public Map<String, String> getFilenameToBlobId() {
-        return filenameToBlobId;
+    private void record(byte flag, String path, String blobId) {
+        apply(flag, path, blobId);
+        pending.add(encode(flag, path, blobId));
     }
 
-    public boolean isNew(Blob blob) {
-        return !filenameToBlobId.containsValue(blob.getId());
+    private static byte[] encode(byte flag, String path, String blobId) {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer rec = ByteBuffer.allocate(3 + pathBytes.length + UID_LENGTH / 2);
+        rec.put(flag).putShort((short) pathBytes.length).put(pathBytes);
+        rec.put(hexToBytes(blobId == null ? "0".repeat(UID_LENGTH) : blobId));
+        return rec.array();
     }
 
-    public boolean isFilePathExists(String path) {
-        return filenameToBlobId.containsKey(path);
+    /** Returns the files staged for addition, as a map from path to blob id. */
+    public Map<String, String> getAdded() {
+        return added;
     }
 
-    public void delete(Blob blob) {
-        filenameToBlobId.remove(blob.getFilePath());
+    /** Returns the files staged for removal, as a map from path to blob id. */
+    public Map<String, String> getRemoved() {
+        return removed;
     }
 
-    public void delete(String path) {
-        filenameToBlobId.remove(path);
+    /** Stages the file at PATH, with contents BLOBID, for addition. */
+    public void add(String path, String blobId) {
+        if (!blobId.equals(added.get(path))) {
+            record(ADDED, path, blobId);
+        }
     }
 
-    public void add(Blob blob) {
-        filenameToBlobId.put(blob.getFilePath(), blob.getId());
+    /** Stages the file at PATH, with contents BLOBID, for removal. */
+    public void remove(String path, String blobId) {
+        if (!blobId.equals(removed.get(path))) {
+            record(REMOVED, path, blobId);
+        }
     }
 
-    public void saveAddStage() {
-        Utils.writeObject(Repository.ADD_STAGE_FILE, this);
+    /** Unstages the file at PATH. */
+    public void unstage(String path) {
+        if (added.containsKey(path) || removed.containsKey(path)) {
+            record(UNSTAGED, path, null);
+        }
     }
 
-    public void saveRemoveStage() {
-        Utils.writeObject(Repository.REMOVE_STAGE_FILE, this);
+    public boolean isAdded(String path) {
+        return added.containsKey(path);
     }
 
-    public List<Blob> getBlobList() {
-        List<Blob> blobList = new ArrayList<>();
-        for (String id : filenameToBlobId.values()) {
-            Blob blob = Utils.readObject(Utils.join(Repository.BLOBS_DIR, id), Blob.class);
-            blobList.add(blob);
-        }
-        return blobList;
+    public boolean isRemoved(String path) {
+        return removed.containsKey(path);
     }
 
     public void clear() {
-        filenameToBlobId.clear();
+        added.clear();
+        removed.clear();
+        pending.clear();
+        rewrite = true;
     }
 
-    public boolean exists(String filename) {
-        return filenameToBlobId.containsKey(filename);
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
     }
 
-    public boolean isEmpty() {
-        return filenameToBlobId.size() == 0;
+    /** Writes the changes to this staging area to STAGE_FILE. */
+    public void save() {
+        Transaction transaction = new Transaction();
+        save(transaction);
+        transaction.commit();
+    }
+
+    /** Writes the changes to this staging area to STAGE_FILE, as part of
+     *  TRANSACTION if STAGE_FILE is rewritten.  Appends are made at once,
+     *  after the blobs they refer to have been made durable. */
+    void save(Transaction transaction) {
+        if (!rewrite && records + pending.size() > 2 * (added.size() + removed.size()) + 64) {
+            rewrite = true;
+        }
+        try {
+            if (rewrite) {
+                pending.clear();
+                for (Map.Entry<String, String> entry : added.entrySet()) {
+                    pending.add(encode(ADDED, entry.getKey(), entry.getValue()));
+                }
+                for (Map.Entry<String, String> entry : removed.entrySet()) {
+                    pending.add(encode(REMOVED, entry.getKey(), entry.getValue()));
+                }
+                ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                contents.write(ByteBuffer.allocate(HEADER_LENGTH)
+                        .putInt(MAGIC).putInt(VERSION).array());
+                for (byte[] rec : pending) {
+                    contents.write(rec);
+                }
+                transaction.write(STAGE_FILE, contents.toByteArray());
+                records = pending.size();
+                for (File legacy : new File[] {Legacy.ADD_STAGE_FILE, Legacy.REMOVE_STAGE_FILE}) {
+                    if (legacy.exists()) {
+                        transaction.delete(legacy);
+                    }
+                }
+            } else if (!pending.isEmpty()) {
+                Transaction.syncTracked();
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(STAGE_FILE, true)))) {
+                    for (byte[] rec : pending) {
+                        out.write(rec);
+                    }
+                }
+                records += pending.size();
+                Transaction.sync(List.of(STAGE_FILE));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        pending.clear();
+        rewrite = false;
     }
 
 }
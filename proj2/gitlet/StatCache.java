@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A cache of the blob ids of working files, keyed by their stat data, so
+ *  that unchanged files can be recognized without reading them.
+ *
+ *  For each file whose contents have been hashed, .gitlet/stat_cache keeps
+ *  its path, size, modification time (in nanoseconds), inode number and
+ *  blob id.  While all of these but the id still match the file, the id is
+ *  taken from the cache.  As in Git, an entry whose modification time is
+ *  not older than the cache file itself is "racily clean": the file might
+ *  have changed again within the same clock tick after it was hashed, so
+ *  it is hashed anew.
+ *
+ *  @author
+ */
+class StatCache {
+
+    /** The cache file. */
+    static final File CACHE_FILE = join(Repository.GITLET_DIR, "stat_cache");
+
+    /** Header of CACHE_FILE: "GSTC" and the format version. */
+    private static final int MAGIC = 0x47535443, VERSION = 1;
+
+    /** The cache of this repository, loaded on first use. */
+    private static StatCache cache;
+
+    /** Returns the stat cache of this repository. */
+    static StatCache get() {
+        if (cache == null || (!cache.changed && cache.stamp != fileStamp(CACHE_FILE))) {
+            cache = new StatCache();
+        }
+        return cache;
+    }
+
+    /** The cached data of one file. */
+    private static class Entry {
+        long size, modified, inode;
+        String blobId;
+    }
+
+    /** Entries by absolute path. */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /** Modification time of CACHE_FILE when it was read, in nanoseconds. */
+    private long cacheModified;
+
+    /** True iff the entries differ from CACHE_FILE. */
+    private boolean changed;
+
+    /** The fileStamp of CACHE_FILE when it was last read or written. */
+    private long stamp;
+
+    private StatCache() {
+        stamp = fileStamp(CACHE_FILE);
+        if (!CACHE_FILE.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(CACHE_FILE)))) {
+            cacheModified = stat(CACHE_FILE)[1];
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Corrupt stat cache.");
+            }
+            int count = in.readInt();
+            byte[] id = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < count; i += 1) {
+                String path = in.readUTF();
+                Entry e = new Entry();
+                e.size = in.readLong();
+                e.modified = in.readLong();
+                e.inode = in.readLong();
+                in.readFully(id);
+                e.blobId = bytesToHex(id);
+                entries.put(path, e);
+            }
+        } catch (EOFException excp) {
+            entries.clear();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the size, modification time in nanoseconds and inode number
+     *  (0 where the file system has none) of FILE. */
+    private static long[] stat(File file) throws IOException {
+        BasicFileAttributes attrs =
+                Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long inode = 0;
+        try {
+            inode = ((Number) Files.getAttribute(file.toPath(), "unix:ino")).longValue();
+        } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+            if (attrs.fileKey() != null) {
+                inode = attrs.fileKey().hashCode();
+            }
+        }
+        return new long[] {attrs.size(),
+            attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), inode};
+    }
+
+    /** Returns the blob id of the contents of FILE, which must exist.  The
+     *  file is only read if its cached stat data is missing or stale. */
+    String blobId(File file) {
+        Entry e = entries.get(file.getPath());
+        try {
+            long[] st = stat(file);
+            if (e != null && e.size == st[0] && e.modified == st[1] && e.inode == st[2]
+                    && e.modified < cacheModified) {
+                return e.blobId;
+            }
+            String id = ObjectStore.hashBlob(file);
+            put(file.getPath(), st, id);
+            return id;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Records that FILE, as it is now, has contents with id BLOBID. */
+    void update(File file, String blobId) {
+        try {
+            put(file.getPath(), stat(file), blobId);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void put(String path, long[] st, String blobId) {
+        Entry e = new Entry();
+        e.size = st[0];
+        e.modified = st[1];
+        e.inode = st[2];
+        e.blobId = blobId;
+        entries.put(path, e);
+        changed = true;
+    }
+
+    /** Forgets the file at PATH. */
+    void remove(String path) {
+        if (entries.remove(path) != null) {
+            changed = true;
+        }
+    }
+
+    /** Writes the cache back to CACHE_FILE if it has changed. */
+    void save() {
+        if (!changed) {
+            return;
+        }
+        try {
+            File temp = File.createTempFile("tmp_stat_", null, Repository.GITLET_DIR);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    Entry e = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(e.size);
+                    out.writeLong(e.modified);
+                    out.writeLong(e.inode);
+                    out.write(hexToBytes(e.blobId));
+                }
+            }
+            Files.move(temp.toPath(), CACHE_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            cacheModified = stat(CACHE_FILE)[1];
+            stamp = fileStamp(CACHE_FILE);
+            changed = false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
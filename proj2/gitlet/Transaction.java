@@ -0,0 +1,262 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** An atomic, crash-safe update of the small files that say what the
+ *  repository holds: HEAD, the branch heads and the staging area.
+ *
+ *  Each new version of a file is written to FILE.lock, which is created
+ *  exclusively, and the real files are only touched by {@link #commit}.
+ *  That first makes durable everything the new versions refer to: the
+ *  objects this process has written since its last commit, which are
+ *  fsynced together there rather than one at a time as they are written,
+ *  and then the lock files.  It then writes the list of files to replace to
+ *  .gitlet/transaction and fsyncs it.  That is the commit point: each lock
+ *  file is then renamed over its file (or the file deleted) and the list
+ *  removed.  A transaction of one file needs no list, since renaming a
+ *  single file is atomic by itself.
+ *
+ *  A command killed before the commit point leaves the repository as it
+ *  was, plus stale lock files; one killed after it leaves a list of renames
+ *  to finish.  {@link #recover}, which every command that changes the
+ *  repository runs first, while holding the exclusive {@link RepositoryLock},
+ *  finishes such renames and removes stale lock files.  Setting core.fsync to false
+ *  (see {@link Config}) skips the fsyncs, which keeps updates atomic when a
+ *  process dies, though not when the machine does.
+ *
+ *  @author
+ */
+class Transaction {
+
+    /** The list of renames of a transaction past its commit point. */
+    static final File JOURNAL_FILE = join(Repository.GITLET_DIR, "transaction");
+
+    /** Suffix of lock files. */
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /** Journal operations. */
+    private static final char RENAME = 'R', DELETE = 'D';
+
+    /** Files written by this process that have not been fsynced yet. */
+    private static final Set<File> UNSYNCED = new LinkedHashSet<>();
+
+    /** The files this transaction replaces, each mapped to its new
+     *  contents, or to null if it is to be deleted. */
+    private final Map<File, byte[]> updates = new LinkedHashMap<>();
+
+    /** Records that FILE has been written and must be made durable before
+     *  any transaction that may refer to it is committed. */
+    static synchronized void track(File file) {
+        UNSYNCED.add(file);
+    }
+
+    /** Makes every file recorded by {@link #track}, and its directory
+     *  entry, durable. */
+    static void syncTracked() {
+        Set<File> files;
+        synchronized (Transaction.class) {
+            files = new LinkedHashSet<>(UNSYNCED);
+            UNSYNCED.clear();
+        }
+        for (File file : new ArrayList<>(files)) {
+            files.add(file.getParentFile());
+        }
+        sync(new ArrayList<>(files));
+    }
+
+    /** Replaces FILE with CONTENTS when this transaction commits. */
+    void write(File file, String contents) {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Replaces FILE with CONTENTS when this transaction commits. */
+    void write(File file, byte[] contents) {
+        lock(file);
+        try {
+            Files.write(lockFile(file).toPath(), contents);
+        } catch (IOException excp) {
+            rollback();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        updates.put(file, contents);
+    }
+
+    /** Deletes FILE when this transaction commits. */
+    void delete(File file) {
+        lock(file);
+        updates.put(file, null);
+    }
+
+    /** Claims FILE for this transaction by creating its lock file. */
+    private void lock(File file) {
+        if (updates.containsKey(file)) {
+            return;
+        }
+        try {
+            Files.createFile(lockFile(file).toPath());
+        } catch (FileAlreadyExistsException excp) {
+            rollback();
+            throw new GitletException("Unable to lock " + file.getName()
+                    + ": another gitlet command is updating it.");
+        } catch (IOException excp) {
+            rollback();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        updates.put(file, null);
+    }
+
+    /** Makes the updates of this transaction, as described above. */
+    void commit() {
+        if (updates.isEmpty()) {
+            return;
+        }
+        try {
+            syncTracked();
+            List<File> locks = new ArrayList<>();
+            for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+                if (update.getValue() != null) {
+                    locks.add(lockFile(update.getKey()));
+                }
+            }
+            sync(locks);
+            if (updates.size() > 1) {
+                StringBuilder journal = new StringBuilder();
+                for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+                    journal.append(update.getValue() == null ? DELETE : RENAME).append(' ')
+                        .append(relativePath(update.getKey())).append('\n');
+                }
+                File temp = File.createTempFile("tmp_transaction_", null,
+                        Repository.GITLET_DIR);
+                writeContents(temp, journal.toString());
+                sync(List.of(temp));
+                Files.move(temp.toPath(), JOURNAL_FILE.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                sync(List.of(Repository.GITLET_DIR));
+            }
+        } catch (IOException | RuntimeException excp) {
+            rollback();
+            if (excp instanceof RuntimeException) {
+                throw (RuntimeException) excp;
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Set<File> dirs = new LinkedHashSet<>();
+        for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+            apply(update.getKey(), update.getValue() == null ? DELETE : RENAME);
+            dirs.add(update.getKey().getParentFile());
+        }
+        sync(new ArrayList<>(dirs));
+        JOURNAL_FILE.delete();
+        updates.clear();
+    }
+
+    /** Abandons this transaction, removing its lock files. */
+    private void rollback() {
+        for (File file : updates.keySet()) {
+            lockFile(file).delete();
+        }
+        updates.clear();
+    }
+
+    /** Completes a transaction interrupted after its commit point, and
+     *  removes the lock files of any interrupted before it, and the
+     *  temporary files of loose objects whose writing was cut short. */
+    static void recover() {
+        if (JOURNAL_FILE.isFile()) {
+            for (String line : readContentsAsString(JOURNAL_FILE).split("\n")) {
+                if (line.length() > 2) {
+                    apply(join(Repository.GITLET_DIR, line.substring(2)), line.charAt(0));
+                }
+            }
+            sync(List.of(Repository.GITLET_DIR, Repository.HEADS_DIR));
+            JOURNAL_FILE.delete();
+        }
+        removeLocks(Repository.GITLET_DIR);
+        for (ObjectStore.Type type : ObjectStore.Type.values()) {
+            File[] temps = type.dir.listFiles((dir, name) -> name.startsWith("tmp_"));
+            for (File temp : temps == null ? new File[0] : temps) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Carries out operation OP of a committed transaction on FILE.  Does
+     *  nothing if that has been done already. */
+    private static void apply(File file, char op) {
+        File lock = lockFile(file);
+        try {
+            if (op == RENAME && lock.isFile()) {
+                Files.move(lock.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } else if (op == DELETE) {
+                file.delete();
+                lock.delete();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Deletes the lock files in DIR and, except for the object store, its
+     *  subdirectories. */
+    private static void removeLocks(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory() && !file.equals(Repository.OBJECTS_DIR)) {
+                removeLocks(file);
+            } else if (file.getName().endsWith(LOCK_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static File lockFile(File file) {
+        return new File(file.getPath() + LOCK_SUFFIX);
+    }
+
+    /** Returns the path of FILE relative to the .gitlet directory. */
+    private static String relativePath(File file) {
+        return Repository.GITLET_DIR.toPath().relativize(file.toPath()).toString()
+            .replace(File.separatorChar, '/');
+    }
+
+    /** Fsyncs FILES, which may include directories, several at a time,
+     *  unless core.fsync is false. */
+    static void sync(List<File> files) {
+        if (files.isEmpty() || !Config.getBoolean("core.fsync", true)) {
+            return;
+        }
+        List<Runnable> tasks = new ArrayList<>();
+        for (File file : files) {
+            tasks.add(() -> force(file));
+        }
+        runInParallel(tasks);
+    }
+
+    private static void force(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
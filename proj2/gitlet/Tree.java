@@ -0,0 +1,230 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** One directory of a commit's snapshot.
+ *
+ *  A tree maps the names in one directory to the blobs of the files there
+ *  and to the trees of its subdirectories.  It is stored as a content-
+ *  addressed object whose contents are its entries, sorted by name, each as
+ *
+ *      kind (1) | name (UTF-8) | 0 | id (20)
+ *
+ *  with kind 'b' for a blob and 't' for a tree, and its id is the SHA-1 of
+ *  those contents.  Since a directory whose contents did not change keeps
+ *  its id, a new commit shares every unchanged subtree with its parent and
+ *  only writes the trees along the paths that changed, and two snapshots
+ *  can be compared by skipping subtrees whose ids are equal.
+ *
+ *  Paths within trees are relative to the working directory and use '/'
+ *  as separator.
+ *
+ *  @author
+ */
+class Tree {
+
+    /** Entry kinds. */
+    private static final byte BLOB = 'b', TREE = 't';
+
+    /** One name in a tree. */
+    private static class Entry {
+        final byte kind;
+        final String id;
+
+        Entry(byte kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+
+        String blobId() {
+            return kind == BLOB ? id : null;
+        }
+
+        String treeId() {
+            return kind == TREE ? id : null;
+        }
+    }
+
+    /** Entries by name, in order. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /** Returns the tree with id ID, or an empty tree if ID is null.  The
+     *  result may be shared through the {@link ObjectCache} and must not be
+     *  modified. */
+    private static Tree read(String id) {
+        if (id == null) {
+            return new Tree();
+        }
+        return ObjectCache.get("tree " + id, () -> decode(id),
+            t -> 64 + 96L * t.entries.size());
+    }
+
+    private static Tree decode(String id) {
+        Tree tree = new Tree();
+        byte[] data = ObjectStore.read(ObjectStore.Type.TREE, id);
+        byte[] uid = new byte[UID_LENGTH / 2];
+        int pos = 0;
+        while (pos < data.length) {
+            byte kind = data[pos];
+            int end = pos + 1;
+            while (end < data.length && data[end] != 0) {
+                end += 1;
+            }
+            if (end + 1 + uid.length > data.length || (kind != BLOB && kind != TREE)) {
+                throw error("Corrupt tree %s.", id);
+            }
+            String name = new String(data, pos + 1, end - pos - 1, StandardCharsets.UTF_8);
+            System.arraycopy(data, end + 1, uid, 0, uid.length);
+            tree.entries.put(name, new Entry(kind, bytesToHex(uid)));
+            pos = end + 1 + uid.length;
+        }
+        return tree;
+    }
+
+    /** Stores this tree in the object store and returns its id. */
+    private String write() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            out.write(entry.getValue().kind);
+            out.writeBytes(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            out.write(0);
+            out.writeBytes(hexToBytes(entry.getValue().id));
+        }
+        byte[] data = out.toByteArray();
+        String id = sha1((Object) data);
+        ObjectStore.write(ObjectStore.Type.TREE, id, data);
+        return id;
+    }
+
+    /** Returns the id of the tree made from tree BASE (empty if null) by
+     *  applying CHANGES, which maps relative paths to new blob ids, or to
+     *  null for files to remove.  Only the trees of directories containing
+     *  changed paths are read and written; all others are shared with BASE. */
+    static String update(String base, Map<String, String> changes) {
+        return update(base, changes, true);
+    }
+
+    /** As for update(BASE, CHANGES), but returns null rather than the id of
+     *  an empty tree unless ROOT. */
+    private static String update(String base, Map<String, String> changes, boolean root) {
+        if (changes.isEmpty() && base != null) {
+            return base;
+        }
+        Tree tree = new Tree();
+        tree.entries.putAll(read(base).entries);
+        Map<String, Map<String, String>> subdirChanges = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    tree.entries.remove(path);
+                } else {
+                    tree.entries.put(path, new Entry(BLOB, change.getValue()));
+                }
+            } else {
+                subdirChanges.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> subdir : subdirChanges.entrySet()) {
+            Entry old = tree.entries.get(subdir.getKey());
+            String subtree = update(old == null ? null : old.treeId(), subdir.getValue(), false);
+            if (subtree == null) {
+                tree.entries.remove(subdir.getKey());
+            } else {
+                tree.entries.put(subdir.getKey(), new Entry(TREE, subtree));
+            }
+        }
+        if (tree.entries.isEmpty() && !root) {
+            return null;
+        }
+        return tree.write();
+    }
+
+    /** Adds every file in tree ID to OUT, mapping PREFIX followed by its
+     *  path relative to the tree to its blob id. */
+    static void flatten(String id, String prefix, Map<String, String> out) {
+        for (Map.Entry<String, Entry> entry : read(id).entries.entrySet()) {
+            Entry e = entry.getValue();
+            if (e.kind == TREE) {
+                flatten(e.id, prefix + entry.getKey() + "/", out);
+            } else {
+                out.put(prefix + entry.getKey(), e.id);
+            }
+        }
+    }
+
+    /** Returns the id of the blob or tree at PATH in tree ID, or null if
+     *  there is none.  Only the trees along PATH are read. */
+    static String lookup(String id, String path) {
+        for (String name : path.split("/")) {
+            Entry entry = id == null ? null : read(id).entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            id = entry.id;
+        }
+        return id;
+    }
+
+    /** Adds the ids of the subtrees and blobs directly in tree ID to TREES
+     *  and BLOBS. */
+    static void children(String id, Collection<String> trees, Collection<String> blobs) {
+        for (Entry entry : read(id).entries.values()) {
+            (entry.kind == TREE ? trees : blobs).add(entry.id);
+        }
+    }
+
+    /** Adds to TREES and BLOBS the ids of the trees and blobs in tree B,
+     *  including B itself, that are not at the same place in tree A (either
+     *  of which may be null).  Subtrees with equal ids are not read. */
+    static void collectNew(String a, String b, Set<String> trees, Set<String> blobs) {
+        if (b == null || b.equals(a) || !trees.add(b)) {
+            return;
+        }
+        Tree first = read(a);
+        for (Map.Entry<String, Entry> entry : read(b).entries.entrySet()) {
+            Entry x = first.entries.get(entry.getKey()), y = entry.getValue();
+            if (y.kind == BLOB) {
+                if (x == null || !y.id.equals(x.id)) {
+                    blobs.add(y.id);
+                }
+            } else {
+                collectNew(x == null ? null : x.treeId(), y.id, trees, blobs);
+            }
+        }
+    }
+
+    /** Adds to OUT every path, prefixed with PREFIX, at which trees A and B
+     *  (either of which may be null) hold different files, mapped to the
+     *  blob ids {in A, in B}, with null for a missing file.  Subtrees with
+     *  equal ids are not read. */
+    static void diff(String a, String b, String prefix, Map<String, String[]> out) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        Tree first = read(a), second = read(b);
+        TreeSet<String> names = new TreeSet<>(first.entries.keySet());
+        names.addAll(second.entries.keySet());
+        for (String name : names) {
+            Entry x = first.entries.get(name), y = second.entries.get(name);
+            String blobX = x == null ? null : x.blobId(), blobY = y == null ? null : y.blobId();
+            if (!Objects.equals(blobX, blobY)) {
+                out.put(prefix + name, new String[] {blobX, blobY});
+            }
+            diff(x == null ? null : x.treeId(), y == null ? null : y.treeId(),
+                    prefix + name + "/", out);
+        }
+    }
+}
@@ -10,13 +10,20 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 /** Assorted utilities.
@@ -36,16 +43,21 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Instrumentation.start();
+        long length = 0;
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
+                byte[] bytes;
                 if (val instanceof byte[]) {
-                    md.update((byte[]) val);
+                    bytes = (byte[]) val;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    bytes = ((String) val).getBytes(StandardCharsets.UTF_8);
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
+                md.update(bytes);
+                length += bytes.length;
             }
             Formatter result = new Formatter();
             for (byte b : md.digest()) {
@@ -54,6 +66,8 @@ class Utils {
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
+        } finally {
+            Instrumentation.end("Utils.sha1", start, length);
         }
     }
 
@@ -97,10 +111,16 @@ class Utils {
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
+        long start = Instrumentation.start();
+        byte[] contents = null;
         try {
-            return Files.readAllBytes(file.toPath());
+            contents = Files.readAllBytes(file.toPath());
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Instrumentation.end("Utils.readContents", start,
+                contents == null ? 0 : contents.length);
         }
     }
 
@@ -116,6 +136,8 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        long start = Instrumentation.start();
+        long length = 0;
         try {
             if (file.isDirectory()) {
                 throw
@@ -124,15 +146,16 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                length += bytes.length;
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Instrumentation.end("Utils.writeContents", start, length);
         }
     }
 
@@ -204,6 +227,20 @@ class Utils {
         return Paths.get(first.getPath(), others).toFile();
     }
 
+    /** Returns a value that changes whenever FILE is created, deleted or
+     *  modified: a mix of its length and its modification time in
+     *  nanoseconds, or 0 if it does not exist.  Used to tell whether data
+     *  read from FILE earlier in a long-running process is still current. */
+    static long fileStamp(File file) {
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS) * 31 + attrs.size();
+        } catch (IOException excp) {
+            return 0;
+        }
+    }
+
 
     /* SERIALIZATION UTILITIES */
 
@@ -216,11 +253,70 @@ class Utils {
             objectStream.close();
             return stream.toByteArray();
         } catch (IOException excp) {
-            throw error("Internal error serializing commit.");
+            throw error("Internal error serializing object.");
         }
     }
 
+    /* HEXADECIMAL UIDS */
+
+    /** Returns the raw bytes denoted by the hexadecimal numeral HEX, which
+     *  must have an even number of digits. */
+    static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
 
+    /** Returns BYTES as a lower-case hexadecimal numeral. */
+    static String bytesToHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+
+
+    /* PARALLELISM */
+
+    /** Runs TASKS, which must not touch shared state, on up to
+     *  checkout.workers threads (see {@link Config}) and returns once all of
+     *  them are done, throwing the exception of the first that failed.  It
+     *  suits many small, independent file operations, such as writing,
+     *  deleting, syncing or comparing files, whose total time is otherwise
+     *  dominated by the latency of each. */
+    static void runInParallel(List<Runnable> tasks) {
+        int workers = Math.min(tasks.size(), Config.getInt("checkout.workers",
+                Runtime.getRuntime().availableProcessors(), 1, 256));
+        if (workers <= 1) {
+            tasks.forEach(Runnable::run);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (Runnable task : tasks) {
+                results.add(pool.submit(task));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
     /* MESSAGES AND ERROR REPORTING */
 